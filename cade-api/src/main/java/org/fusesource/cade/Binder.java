@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade;
+
+import java.lang.reflect.Type;
+import java.util.Dictionary;
+
+/**
+ * A binder converts configuration properties into an instance of
+ * a configuration interface.
+ *
+ * Binders are generated at build time by the cade-processor annotation
+ * processor, in the same package as the configuration interface and named
+ * after its binary name followed by {@link #SUFFIX}.  When a binder is
+ * found, the extender uses it instead of introspecting the interface.
+ *
+ * @param <T> the configuration interface
+ */
+public interface Binder<T> {
+
+    /**
+     * The suffix appended to the binary name of the configuration
+     * interface to get the name of its binder.
+     */
+    String SUFFIX = "$$CadeBinder";
+
+    /**
+     * The configuration interface.
+     */
+    Class<T> getType();
+
+    /**
+     * The PIDs defining the configuration, ordered from the configuration
+     * interface to its super interfaces.
+     */
+    String[] getPids();
+
+    /**
+     * Create the configuration object for the given properties.
+     *
+     * @param properties the merged configuration properties
+     * @param converter the converter to use for non string values
+     * @return the configuration object
+     * @throws Exception if a value can not be converted
+     */
+    T bind(Dictionary<?, ?> properties, TypeConverter converter) throws Exception;
+
+    /**
+     * The conversion service provided by the extender to binders.
+     */
+    interface TypeConverter {
+
+        Object convert(Object value, Type type) throws Exception;
+
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade;
+
+import java.lang.reflect.Type;
+
+/**
+ * OSGi services implementing this interface are used to convert
+ * configuration values to custom types.
+ *
+ * The classes a converter produces should be listed in the {@link #TARGET_TYPES}
+ * service property, so that it is only consulted for those types.  Converters
+ * registered without this property are consulted for every type.  Converters
+ * are tried in ranking order before the built-in conversions.
+ *
+ * When a converter comes or goes, the configurations are delivered again to
+ * all the configurables, as their values may now be converted differently.
+ */
+public interface Converter {
+
+    /**
+     * The service property listing the fully qualified names of the raw
+     * classes this converter produces, as a <code>String</code> or
+     * <code>String[]</code>.
+     */
+    String TARGET_TYPES = "cade.converter.types";
+
+    /**
+     * Check if the given value can be converted to the given type.
+     *
+     * The answer is cached for the class of the value and the target type, so
+     * it must not depend on the value itself: a converter accepting a class
+     * can still return <code>null</code> from {@link #convert} for a given value.
+     *
+     * @param source the non null value to convert
+     * @param target the type to convert to
+     * @return <code>true</code> if the value can be converted
+     */
+    boolean canConvert(Object source, Type target);
+
+    /**
+     * Convert the value to the given type.
+     *
+     * @param source the non null value to convert
+     * @param target the type to convert to
+     * @return the converted value, or <code>null</code> to let the next converter try
+     * @throws Exception if the value can not be converted
+     */
+    Object convert(Object source, Type target) throws Exception;
+
+}
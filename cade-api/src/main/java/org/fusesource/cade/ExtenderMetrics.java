@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade;
+
+import java.util.Map;
+
+/**
+ * The runtime metrics of the extender, registered as an OSGi service, which
+ * also gives access to the statistics of its configuration cache and allows
+ * forcing a full resynchronization.
+ *
+ * Each measure records a count and a distribution of durations, both in total
+ * and broken down by key.  Measures related to configurations are keyed by PID,
+ * or by factory PID for the instances of a factory, the others by the class name
+ * of the Configurable.  All durations are in
+ * nanoseconds.
+ */
+public interface ExtenderMetrics {
+
+    /**
+     * Configuration events received, by PID or factory PID.  No duration is recorded.
+     */
+    String EVENTS = "events";
+
+    /**
+     * ConfigurationAdmin queries, by PID or factory PID.
+     */
+    String QUERIES = "queries";
+
+    /**
+     * Complete deliveries, including suppressed ones, by Configurable class.
+     */
+    String DELIVERIES = "deliveries";
+
+    /**
+     * Deliveries skipped as the configuration did not change, by Configurable class.
+     * No duration is recorded.
+     */
+    String SUPPRESSED = "suppressed";
+
+    /**
+     * Conversions of properties into configuration objects, by Configurable class.
+     */
+    String CONVERSIONS = "conversions";
+
+    /**
+     * Calls to <code>setup()</code> and <code>deleted()</code>, by Configurable class.
+     */
+    String CALLBACKS = "callbacks";
+
+    /**
+     * Time from the reception of an event to the end of the resulting callback,
+     * by Configurable class.
+     */
+    String LATENCY = "latency";
+
+    /**
+     * The names of the available measures.
+     */
+    String[] getMeasures();
+
+    /**
+     * The statistics of a measure over all keys.
+     *
+     * @param measure the name of the measure
+     * @return the statistics, or <code>null</code> if there is no such measure
+     */
+    Statistics getStatistics(String measure);
+
+    /**
+     * The statistics of a measure for each key.
+     *
+     * @param measure the name of the measure
+     * @return the statistics by key, or <code>null</code> if there is no such measure
+     */
+    Map<String, Statistics> getStatisticsByKey(String measure);
+
+    /**
+     * The number of configuration reads served from the extender's cache.
+     */
+    long getCacheHits();
+
+    /**
+     * The number of configuration reads which had to query the ConfigurationAdmin services.
+     */
+    long getCacheMisses();
+
+    /**
+     * Clear all the statistics.
+     */
+    void reset();
+
+    /**
+     * Drop all cached configurations and deliver the configurations read again
+     * from the ConfigurationAdmin services to all Configurables.  Configurables
+     * whose configuration did not change are not called.
+     */
+    void resync();
+
+    /**
+     * The recorded values of a measure.  Durations are kept in a histogram
+     * of 65 buckets: the first one counts zero durations, and bucket <code>i</code>
+     * counts durations between 2<sup>i-1</sup> included and 2<sup>i</sup> excluded.
+     */
+    interface Statistics {
+
+        long getCount();
+
+        long getTotalTime();
+
+        long getMaxTime();
+
+        double getMeanTime();
+
+        /**
+         * An upper bound of the given percentile of the durations.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the upper bound of the histogram bucket holding the percentile,
+         *         or the maximum duration if lower
+         */
+        long getPercentileTime(double percentile);
+
+        long[] getHistogram();
+    }
+
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade;
+
+/**
+ * OSGi services implementing this interface will be delivered
+ * the instances of a ConfigAdmin factory configuration, each one
+ * as designed by the parameterized class T.
+ *
+ * The factory PID is the PID of the class T, as defined by the
+ * {@link Meta.PID} annotation or its class name.  Each instance
+ * is identified by its own PID, generated by ConfigAdmin.
+ *
+ * @param <T>
+ */
+public interface FactoryConfigurable<T> {
+
+    void setup(String pid, T settings);
+
+    void deleted(String pid);
+}
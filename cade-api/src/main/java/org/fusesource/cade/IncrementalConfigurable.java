@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade;
+
+import java.util.Set;
+
+/**
+ * A {@link Configurable} told what has changed when its configuration is updated,
+ * so that it only rebuilds the resources depending on the changed properties.
+ *
+ * The first configuration is delivered with {@link #setup(Object)}, like for any
+ * Configurable, and so is the first one after {@link #deleted()}.  The following
+ * ones are delivered with {@link #update(Object, Object, Set)}, along with the
+ * configuration they replace.
+ *
+ * @param <T>
+ */
+public interface IncrementalConfigurable<T> extends Configurable<T> {
+
+    /**
+     * Replace the configuration previously delivered.
+     *
+     * @param previous the configuration previously delivered
+     * @param settings the new configuration
+     * @param changes the names of the accessor methods of T whose value has changed
+     */
+    void update(T previous, T settings, Set<String> changes);
+
+}
@@ -58,6 +58,10 @@ public interface Meta {
      * Indicate the property is mandatory.
      * A configuration with missing mandatory properties
      * should not be delivered.
+     *
+     * Properties of a primitive type are always mandatory, as they can not
+     * be <code>null</code>: unless they have a {@link Default} value, a
+     * configuration without them is not delivered either.
      */
     @Target(ElementType.METHOD)
     @Retention(RetentionPolicy.RUNTIME)
@@ -69,4 +73,39 @@ public interface Meta {
     @interface Separated {
         String value() default "\\s*,\\s*";
     }
+
+    /**
+     * Constrain the numeric value of the property, bounds included.
+     * A configuration with a value out of range, or which is not
+     * a number, should not be delivered.
+     */
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Range {
+        double min() default Double.NEGATIVE_INFINITY;
+        double max() default Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Constrain the value of the property to match the given
+     * regular expression.  A configuration with a value which
+     * does not match should not be delivered.
+     */
+    @Target(ElementType.METHOD)
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Pattern {
+        String value();
+    }
+
+    /**
+     * Indicate the property should be converted on first access
+     * rather than when the configuration is delivered.
+     * The converted value is remembered for subsequent calls.
+     * When used on an interface, it applies to all the properties
+     * declared by this interface.
+     */
+    @Target({ ElementType.TYPE, ElementType.METHOD })
+    @Retention(RetentionPolicy.RUNTIME)
+    @interface Lazy {
+    }
 }
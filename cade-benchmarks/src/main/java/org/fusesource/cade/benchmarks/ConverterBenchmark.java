@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.cade.impl.converter.DefaultConverter;
+import org.fusesource.cade.impl.converter.GenericType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversions of raw configuration values by the {@link DefaultConverter},
+ * with target types resolved once as accessors do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+
+    // holders for the generic target types
+    public static List<Integer> listOfIntegers;
+    public static Map<String, Integer> mapOfIntegers;
+
+    private DefaultConverter converter;
+    private GenericType intType;
+    private GenericType integerType;
+    private GenericType longType;
+    private GenericType doubleType;
+    private GenericType booleanType;
+    private GenericType intArrayType;
+    private GenericType doubleArrayType;
+    private GenericType listType;
+    private GenericType mapType;
+    private String[] strings;
+    private List<String> list;
+    private Map<String, String> map;
+    private String[] ports;
+    private List<Number> weights;
+
+    @Setup
+    public void setup() throws Exception {
+        converter = new DefaultConverter(getClass().getClassLoader());
+        intType = new GenericType(int.class);
+        integerType = new GenericType(Integer.class);
+        longType = new GenericType(long.class);
+        doubleType = new GenericType(double.class);
+        booleanType = new GenericType(boolean.class);
+        intArrayType = new GenericType(int[].class);
+        doubleArrayType = new GenericType(double[].class);
+        listType = new GenericType(getClass().getField("listOfIntegers").getGenericType());
+        mapType = new GenericType(getClass().getField("mapOfIntegers").getGenericType());
+        strings = new String[] { "1", "2", "3", "4", "5", "6", "7", "8" };
+        list = Arrays.asList(strings);
+        map = new HashMap<String, String>();
+        for (String s : strings) {
+            map.put("key" + s, s);
+        }
+        ports = new String[10000];
+        Number[] w = new Number[10000];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = Integer.toString(1024 + i);
+            w[i] = i % 2 == 0 ? (Number) i : (Number) (i / 100.0);
+        }
+        weights = Arrays.asList(w);
+    }
+
+    @Benchmark
+    public Object stringToInt() throws Exception {
+        return converter.convert("8080", intType);
+    }
+
+    @Benchmark
+    public Object stringToInteger() throws Exception {
+        return converter.convert("8080", integerType);
+    }
+
+    @Benchmark
+    public Object stringToDouble() throws Exception {
+        return converter.convert("3.14", doubleType);
+    }
+
+    @Benchmark
+    public Object stringToBoolean() throws Exception {
+        return converter.convert("true", booleanType);
+    }
+
+    @Benchmark
+    public Object integerToLong() throws Exception {
+        return converter.convert(8080, longType);
+    }
+
+    @Benchmark
+    public Object stringArrayToIntArray() throws Exception {
+        return converter.convert(strings, intArrayType);
+    }
+
+    @Benchmark
+    public Object largeStringArrayToIntArray() throws Exception {
+        return converter.convert(ports, intArrayType);
+    }
+
+    @Benchmark
+    public Object largeNumberListToDoubleArray() throws Exception {
+        return converter.convert(weights, doubleArrayType);
+    }
+
+    @Benchmark
+    public Object stringListToIntegerList() throws Exception {
+        return converter.convert(list, listType);
+    }
+
+    @Benchmark
+    public Object stringMapToIntegerMap() throws Exception {
+        return converter.convert(map, mapType);
+    }
+
+}
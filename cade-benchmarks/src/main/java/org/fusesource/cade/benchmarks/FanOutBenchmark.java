@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.cade.Configurable;
+import org.fusesource.cade.benchmarks.Model.Config1;
+import org.fusesource.cade.impl.Extender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.service.cm.ConfigurationEvent;
+
+/**
+ * Delivery of a configuration event to all the Configurables registered on its PID.
+ * The content of the configuration changes before each event, so that every
+ * Configurable is set up again.  Deliveries happen on the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({ "1", "100", "10000" })
+    public int configurables;
+
+    private MockEnvironment environment;
+    private Extender extender;
+    private ConfigurationEvent event;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        environment = new MockEnvironment(Model.PID_CONFIG1);
+        extender = new Extender(environment.getContext());
+        for (int i = 0; i < configurables; i++) {
+            extender.addConfigurable((Configurable) new Service());
+        }
+        event = new ConfigurationEvent(environment.getConfigAdminReference(),
+                ConfigurationEvent.CM_UPDATED, null, Model.PID_CONFIG1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        extender.dispose();
+    }
+
+    @Benchmark
+    public void configurationEvent() {
+        environment.touch();
+        extender.configurationEvent(event);
+    }
+
+    public static class Service implements Configurable<Config1> {
+
+        private volatile Config1 config;
+
+        public void setup(Config1 config) {
+            this.config = config;
+        }
+
+        public void deleted() {
+            this.config = null;
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.benchmarks;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * A minimal OSGi environment for running the extender outside of a framework:
+ * a {@link BundleContext} exposing a single {@link ConfigurationAdmin} holding
+ * one configuration, whose content changes each time it is {@link #touch() touched}.
+ */
+public class MockEnvironment {
+
+    private final String pid;
+    private final AtomicInteger revision = new AtomicInteger();
+    private final ServiceReference configAdminReference;
+    private final ConfigurationAdmin configAdmin;
+    private final BundleContext context;
+
+    public MockEnvironment(String pid) {
+        this.pid = pid;
+        this.configAdminReference = mock(ServiceReference.class, new Handler());
+        this.configAdmin = mock(ConfigurationAdmin.class, new Handler() {
+            protected Object call(Method method, Object[] args) throws Exception {
+                if ("listConfigurations".equals(method.getName())) {
+                    String filter = (String) args[0];
+                    if (filter == null || filter.contains(MockEnvironment.this.pid)) {
+                        return new Configuration[] { newConfiguration() };
+                    }
+                }
+                return null;
+            }
+        });
+        this.context = mock(BundleContext.class, new Handler() {
+            protected Object call(Method method, Object[] args) throws Exception {
+                String name = method.getName();
+                if ("createFilter".equals(name)) {
+                    return FrameworkUtil.createFilter((String) args[0]);
+                } else if ("getServiceReferences".equals(name)) {
+                    if (ConfigurationAdmin.class.getName().equals(args[0])) {
+                        return new ServiceReference[] { configAdminReference };
+                    }
+                } else if ("getService".equals(name)) {
+                    if (args[0] == configAdminReference) {
+                        return configAdmin;
+                    }
+                } else if ("registerService".equals(name)) {
+                    return mock(ServiceRegistration.class, new Handler());
+                }
+                return null;
+            }
+        });
+    }
+
+    public BundleContext getContext() {
+        return context;
+    }
+
+    public ServiceReference getConfigAdminReference() {
+        return configAdminReference;
+    }
+
+    /**
+     * Change the content of the configuration.
+     */
+    public void touch() {
+        revision.incrementAndGet();
+    }
+
+    private Configuration newConfiguration() {
+        final Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("service.pid", pid);
+        properties.put("host", "host" + revision.get());
+        properties.put("port", "8080");
+        return mock(Configuration.class, new Handler() {
+            protected Object call(Method method, Object[] args) throws Exception {
+                String name = method.getName();
+                if ("getPid".equals(name)) {
+                    return pid;
+                } else if ("getProperties".equals(name)) {
+                    return new Hashtable<String, Object>((Hashtable<String, Object>) properties);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static <T> T mock(Class<T> clazz, InvocationHandler handler) {
+        return clazz.cast(Proxy.newProxyInstance(MockEnvironment.class.getClassLoader(), new Class[] { clazz }, handler));
+    }
+
+    private static class Handler implements InvocationHandler {
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                } else if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                } else {
+                    return "Mock" + proxy.getClass().getInterfaces()[0].getSimpleName();
+                }
+            }
+            Object result = call(method, args);
+            Class<?> type = method.getReturnType();
+            if (result == null && type.isPrimitive() && type != void.class) {
+                // the default value of the primitive type
+                result = Array.get(Array.newInstance(type, 1), 0);
+            }
+            return result;
+        }
+
+        protected Object call(Method method, Object[] args) throws Exception {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.benchmarks;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.fusesource.cade.Meta;
+
+/**
+ * Configuration interfaces shaped like the ones of the integration tests.
+ */
+public class Model {
+
+    public static final String PID_CONFIG1 = "org.fusesource.cade.benchmarks.Config1";
+    public static final String PID_CONFIG2 = "org.fusesource.cade.benchmarks.CustomPID";
+
+    @Meta.PID(PID_CONFIG1)
+    public interface Config1 {
+
+        @Meta.Mandatory
+        String host();
+
+        @Meta.Default("80")
+        int port();
+
+    }
+
+    @Meta.PID(PID_CONFIG2)
+    public interface Config2 extends Config1 {
+
+        @Meta.Separated
+        List<String> tokens();
+
+    }
+
+    public static Properties props(String... values) {
+        Properties props = new Properties();
+        for (int i = 0; i < values.length;) {
+            props.put(values[i++], values[i++]);
+        }
+        return props;
+    }
+
+}
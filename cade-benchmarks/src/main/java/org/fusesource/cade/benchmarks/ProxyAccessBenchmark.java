@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.fusesource.cade.benchmarks.Model.Config1;
+import org.fusesource.cade.benchmarks.Model.Config2;
+import org.fusesource.cade.impl.ConfigurationHandler;
+import org.fusesource.cade.impl.ConfigurationPlan;
+import org.fusesource.cade.impl.converter.DefaultConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Accessor calls on configuration objects, either instances of the class
+ * generated for the interface or proxies backed by a {@link ConfigurationHandler}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyAccessBenchmark {
+
+    private Config1 generated1;
+    private Config1 proxy1;
+    private Config2 generated2;
+    private Config2 proxy2;
+
+    @Setup
+    public void setup() throws Exception {
+        ClassLoader loader = getClass().getClassLoader();
+        DefaultConverter converter = new DefaultConverter(loader);
+        Properties props1 = Model.props("host", "localhost", "port", "8080");
+        Properties props2 = Model.props("host", "localhost", "tokens", "foo, bar, baz");
+        ConfigurationPlan plan1 = new ConfigurationPlan(Config1.class);
+        ConfigurationPlan plan2 = new ConfigurationPlan(Config2.class);
+        generated1 = (Config1) plan1.newInstance(props1, converter, loader);
+        generated2 = (Config2) plan2.newInstance(props2, converter, loader);
+        proxy1 = (Config1) Proxy.newProxyInstance(loader, new Class[] { Config1.class },
+                new ConfigurationHandler(plan1, props1, converter));
+        proxy2 = (Config2) Proxy.newProxyInstance(loader, new Class[] { Config2.class },
+                new ConfigurationHandler(plan2, props2, converter));
+    }
+
+    @Benchmark
+    public String generatedString() {
+        return generated1.host();
+    }
+
+    @Benchmark
+    public int generatedInt() {
+        return generated1.port();
+    }
+
+    @Benchmark
+    public List<String> generatedList() {
+        return generated2.tokens();
+    }
+
+    @Benchmark
+    public String proxyString() {
+        return proxy1.host();
+    }
+
+    @Benchmark
+    public int proxyInt() {
+        return proxy1.port();
+    }
+
+    @Benchmark
+    public List<String> proxyList() {
+        return proxy2.tokens();
+    }
+
+}
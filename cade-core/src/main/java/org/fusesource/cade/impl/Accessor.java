@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.lang.reflect.Method;
+import java.util.Dictionary;
+
+import org.fusesource.cade.Meta;
+import org.fusesource.cade.impl.converter.DefaultConverter;
+import org.fusesource.cade.impl.converter.GenericType;
+import org.fusesource.cade.impl.converter.Tokenizer;
+
+/**
+ * The resolved metadata of a single accessor method of a configuration interface.
+ * All annotations are read once when the accessor is built, so that retrieving the
+ * raw value for a given set of properties does not involve any reflection.
+ */
+public class Accessor {
+
+    private final Method method;
+    private final int index;
+    private final String key;
+    private final String alias;
+    private final String defaultValue;
+    private final String separator;
+    private final Tokenizer tokenizer;
+    private final GenericType type;
+    private final boolean lazy;
+
+    public Accessor(Method method, int index) {
+        this.method = method;
+        this.index = index;
+        Meta.Key k = method.getAnnotation(Meta.Key.class);
+        if (k != null) {
+            this.key = k.value();
+            this.alias = null;
+        } else {
+            String name = method.getName();
+            String dotted = name.replace('_', '.');
+            this.key = name;
+            this.alias = dotted.equals(name) ? null : dotted;
+        }
+        Meta.Default def = method.getAnnotation(Meta.Default.class);
+        this.defaultValue = def != null ? def.value() : null;
+        Meta.Separated sep = method.getAnnotation(Meta.Separated.class);
+        this.separator = sep != null ? sep.value() : null;
+        this.tokenizer = sep != null ? new Tokenizer(sep.value()) : null;
+        this.type = new GenericType(method.getGenericReturnType());
+        this.lazy = method.isAnnotationPresent(Meta.Lazy.class)
+                || method.getDeclaringClass().isAnnotationPresent(Meta.Lazy.class);
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * The position of this accessor in its {@link ConfigurationPlan}.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * The property name, either the method name or the value of the
+     * {@link Meta.Key} annotation.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * The dotted form of the method name (underscores replaced with dots),
+     * or <code>null</code> if there is none.
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    public String getDefaultValue() {
+        return defaultValue;
+    }
+
+    public String getSeparator() {
+        return separator;
+    }
+
+    public GenericType getType() {
+        return type;
+    }
+
+    /**
+     * Whether the value should be converted on first access instead
+     * of when the configuration is delivered.
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Retrieve the unconverted value for this accessor, applying the alias,
+     * the default value and the separator if any.  Separated values are either
+     * a <code>String[]</code> or a collection of tokens.
+     *
+     * @param properties the configuration properties
+     * @return the raw value or <code>null</code>
+     */
+    public Object getRawValue(Dictionary<?, ?> properties) {
+        Object value = getSourceValue(properties);
+        if (value != null && tokenizer != null) {
+            value = tokenizer.split(value.toString());
+        }
+        return value;
+    }
+
+    /**
+     * Retrieve the property value for this accessor as it is in the configuration,
+     * applying the alias and the default value, but not the separator.
+     *
+     * @param properties the configuration properties
+     * @return the value or <code>null</code>
+     */
+    public Object getSourceValue(Dictionary<?, ?> properties) {
+        Object value = properties.get(key);
+        if (value == null && alias != null) {
+            value = properties.get(alias);
+        }
+        if (value == null) {
+            value = defaultValue;
+        }
+        return value;
+    }
+
+    /**
+     * Retrieve the value for this accessor, converted to the return type of the method.
+     *
+     * @param properties the configuration properties
+     * @param converter the converter to use
+     * @return the converted value or <code>null</code>
+     * @throws Exception if the value can not be converted
+     */
+    public Object getValue(Dictionary<?, ?> properties, DefaultConverter converter) throws Exception {
+        Object value = getRawValue(properties);
+        if (value != null) {
+            value = converter.convert(value, type);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return method.getName() + "[" + key + "]";
+    }
+}
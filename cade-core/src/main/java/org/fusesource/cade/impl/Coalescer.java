@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses bursts of configuration events targeting the same Configurable.
+ *
+ * Each event postpones the delivery to the Configurable until no new event has been
+ * received for the quiet period, or until the maximum delay since the first pending
+ * event has elapsed.  As the configuration is read when it is delivered, only the
+ * latest merged state reaches the Configurable, so that a deletion quickly followed
+ * by a recreation does not cause a <code>deleted()</code> call.
+ *
+ * When the quiet period is zero, deliveries happen immediately on the calling thread.
+ *
+ * @param <T> the type of the delivery targets
+ */
+public abstract class Coalescer<T> {
+
+    private final Map<T, Pending> pending = new IdentityHashMap<T, Pending>();
+    private ScheduledExecutorService executor;
+    private long quietPeriod;
+    private long maxDelay;
+
+    /**
+     * Change the delays used to collapse events.
+     *
+     * @param quietPeriod the quiet period in milliseconds, zero to disable coalescing
+     * @param maxDelay the maximum delay in milliseconds, zero for no limit
+     */
+    public synchronized void setDelays(long quietPeriod, long maxDelay) {
+        this.quietPeriod = Math.max(0, quietPeriod);
+        this.maxDelay = Math.max(0, maxDelay);
+        if (this.quietPeriod > 0 && executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "CADE coalescer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Schedule a delivery to the given Configurable.
+     *
+     * @param configurable the Configurable to deliver to
+     */
+    public void schedule(final T configurable) {
+        synchronized (this) {
+            if (quietPeriod > 0) {
+                long now = System.currentTimeMillis();
+                Pending p = pending.get(configurable);
+                if (p == null) {
+                    p = new Pending(now);
+                    pending.put(configurable, p);
+                } else {
+                    p.future.cancel(false);
+                }
+                long delay = quietPeriod;
+                if (maxDelay > 0) {
+                    delay = Math.max(0, Math.min(delay, p.first + maxDelay - now));
+                }
+                final Pending current = p;
+                p.future = executor.schedule(new Runnable() {
+                    public void run() {
+                        synchronized (Coalescer.this) {
+                            if (pending.get(configurable) != current) {
+                                return;
+                            }
+                            pending.remove(configurable);
+                        }
+                        deliver(configurable);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        deliver(configurable);
+    }
+
+    /**
+     * Discard any pending delivery to the given Configurable.
+     *
+     * @param configurable the Configurable
+     */
+    public synchronized void cancel(Object configurable) {
+        Pending p = pending.remove(configurable);
+        if (p != null) {
+            p.future.cancel(false);
+        }
+    }
+
+    /**
+     * Discard all pending deliveries and stop the timer thread.
+     */
+    public synchronized void dispose() {
+        pending.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        quietPeriod = 0;
+    }
+
+    /**
+     * Deliver the current configuration to the given Configurable.
+     *
+     * @param configurable the Configurable
+     */
+    protected abstract void deliver(T configurable);
+
+    private static class Pending {
+
+        final long first;
+        ScheduledFuture<?> future;
+
+        Pending(long first) {
+            this.first = first;
+        }
+    }
+
+}
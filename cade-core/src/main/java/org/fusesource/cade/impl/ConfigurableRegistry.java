@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.fusesource.cade.Configurable;
+
+/**
+ * The Configurables registered on each PID.
+ *
+ * Adding or removing a Configurable only touches the sets of its own PIDs, each
+ * being a concurrent set, so registrations do not copy anything.  The PIDs a
+ * Configurable has been registered with are remembered, so that it is removed
+ * from all of them.  Iterating over the Configurables of a PID does not take a
+ * snapshot: the iteration is weakly consistent and may or may not reflect
+ * registrations happening concurrently.
+ */
+public class ConfigurableRegistry {
+
+    private final ConcurrentMap<String, ConcurrentMap<Configurable<?>, Boolean>> byPid = new ConcurrentHashMap<String, ConcurrentMap<Configurable<?>, Boolean>>();
+    private final ConcurrentMap<Configurable<?>, List<String>> pids = new ConcurrentHashMap<Configurable<?>, List<String>>();
+
+    /**
+     * Register a Configurable on the given PIDs.
+     *
+     * @param configurable the Configurable
+     * @param pids the PIDs of its configuration interface
+     */
+    public void add(Configurable<?> configurable, List<String> pids) {
+        this.pids.put(configurable, pids);
+        for (String pid : pids) {
+            ConcurrentMap<Configurable<?>, Boolean> cfgs = byPid.get(pid);
+            if (cfgs == null) {
+                cfgs = new ConcurrentHashMap<Configurable<?>, Boolean>();
+                ConcurrentMap<Configurable<?>, Boolean> oldCfgs = byPid.putIfAbsent(pid, cfgs);
+                if (oldCfgs != null) {
+                    cfgs = oldCfgs;
+                }
+            }
+            cfgs.put(configurable, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Unregister a Configurable from all the PIDs it has been registered on.
+     *
+     * @param configurable the Configurable
+     * @return <code>true</code> if the Configurable was registered
+     */
+    public boolean remove(Configurable<?> configurable) {
+        List<String> pids = this.pids.remove(configurable);
+        if (pids == null) {
+            return false;
+        }
+        for (String pid : pids) {
+            // empty sets are kept, as removing them would race with additions
+            ConcurrentMap<Configurable<?>, Boolean> cfgs = byPid.get(pid);
+            if (cfgs != null) {
+                cfgs.remove(configurable);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The Configurables registered on the given PID.
+     *
+     * @param pid the PID
+     * @return a live view of the Configurables, never <code>null</code>
+     */
+    public Collection<Configurable<?>> get(String pid) {
+        ConcurrentMap<Configurable<?>, Boolean> cfgs = byPid.get(pid);
+        return cfgs != null ? cfgs.keySet() : Collections.<Configurable<?>>emptySet();
+    }
+
+    /**
+     * All the registered Configurables, each one once.
+     *
+     * @return a live view of the Configurables
+     */
+    public Collection<Configurable<?>> getAll() {
+        return pids.keySet();
+    }
+
+}
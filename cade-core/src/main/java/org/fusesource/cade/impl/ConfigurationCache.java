@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.util.Dictionary;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+/**
+ * A cache of the configuration dictionaries held by the ConfigurationAdmin
+ * services, indexed by PID.
+ *
+ * A PID is read from the ConfigurationAdmin services the first time it is
+ * needed, and kept until an event for this PID is received.  PIDs without any
+ * configuration are cached too, as most Configurables start without one.
+ * A load racing with an event is not cached, so that the cache never keeps
+ * content older than the last event.  For the same reason, listings used to
+ * {@link #populate(Map, long) populate} the cache are stamped with the
+ * {@link #getGeneration() generation} read before listing, and are dropped
+ * if any event has been received since.
+ */
+public class ConfigurationCache {
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong generation = new AtomicLong();
+    private final Metrics metrics;
+
+    /**
+     * @param metrics the metrics recording the hits and misses, and the time spent querying ConfigurationAdmin
+     */
+    public ConfigurationCache(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the configuration of the given PID, merged from all the ConfigurationAdmin
+     * services, the first service holding a key winning.
+     *
+     * @param pid the PID
+     * @param configAdmins the ConfigurationAdmin services, may be <code>null</code>
+     * @return the dictionary, or <code>null</code> if there is no such configuration
+     */
+    public Dictionary<?, ?> get(String pid, Object[] configAdmins) {
+        return get(pid, null, configAdmins);
+    }
+
+    /**
+     * Get the configuration of the given PID, merged from all the ConfigurationAdmin
+     * services, the first service holding a key winning.  Queries for instances of
+     * a factory are recorded under the factory PID, so that the metrics do not grow
+     * with the instances created over time.
+     *
+     * @param pid the PID
+     * @param factoryPid the factory PID of the configuration, or <code>null</code>
+     * @param configAdmins the ConfigurationAdmin services, may be <code>null</code>
+     * @return the dictionary, or <code>null</code> if there is no such configuration
+     */
+    public Dictionary<?, ?> get(String pid, String factoryPid, Object[] configAdmins) {
+        Entry entry = entries.get(pid);
+        if (entry == null) {
+            entry = new Entry(pid, factoryPid != null ? factoryPid : pid);
+            Entry oldEntry = entries.putIfAbsent(pid, entry);
+            if (oldEntry != null) {
+                entry = oldEntry;
+            }
+        }
+        return entry.get(configAdmins);
+    }
+
+    /**
+     * The current generation of the cache, increased each time a configuration
+     * is invalidated.  It must be read before listing the configurations
+     * given to {@link #populate(Map, long)}.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Fill the cache with the configurations listed by a ConfigurationAdmin,
+     * when it is the only one.  Entries already cached are kept, and nothing
+     * is kept if a configuration has been invalidated since the listing.
+     *
+     * @param dictionaries the dictionaries indexed by PID
+     * @param generation the generation read before listing the configurations
+     */
+    public void populate(Map<String, Dictionary<?, ?>> dictionaries, long generation) {
+        for (Map.Entry<String, Dictionary<?, ?>> e : dictionaries.entrySet()) {
+            if (this.generation.get() != generation) {
+                return;
+            }
+            Entry entry = new Entry(e.getKey(), e.getKey());
+            entry.dictionary = e.getValue();
+            entry.loaded = true;
+            if (entries.putIfAbsent(e.getKey(), entry) == null && this.generation.get() != generation) {
+                // an event may have been received before the entry was added
+                entries.remove(e.getKey(), entry);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drop the cached configuration of the given PID, after it has been updated or deleted.
+     *
+     * @param pid the PID
+     */
+    public void invalidate(String pid) {
+        generation.incrementAndGet();
+        entries.remove(pid);
+    }
+
+    /**
+     * Drop all cached configurations.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * The number of reads served from memory.
+     */
+    public long getHits() {
+        return metrics.cacheHits.get();
+    }
+
+    /**
+     * The number of reads which had to query the ConfigurationAdmin services.
+     */
+    public long getMisses() {
+        return metrics.cacheMisses.get();
+    }
+
+    private class Entry {
+
+        final String pid;
+        final String key;
+        Dictionary<?, ?> dictionary;
+        boolean loaded;
+
+        Entry(String pid, String key) {
+            this.pid = pid;
+            this.key = key;
+        }
+
+        synchronized Dictionary<?, ?> get(Object[] configAdmins) {
+            if (loaded) {
+                metrics.cacheHits.incrementAndGet();
+            } else {
+                metrics.cacheMisses.incrementAndGet();
+                long start = System.nanoTime();
+                dictionary = load(configAdmins);
+                metrics.queries.record(key, System.nanoTime() - start);
+                loaded = true;
+            }
+            return dictionary;
+        }
+
+        private Dictionary<?, ?> load(Object[] configAdmins) {
+            Dictionary<?, ?> result = null;
+            if (configAdmins != null) {
+                String filter = "(service.pid=" + pid + ")";
+                for (Object ca : configAdmins) {
+                    try {
+                        Configuration[] cfgs = ((ConfigurationAdmin) ca).listConfigurations(filter);
+                        if (cfgs != null) {
+                            for (Configuration cfg : cfgs) {
+                                Dictionary<?, ?> d = cfg.getProperties();
+                                if (d == null) {
+                                    continue;
+                                }
+                                if (result == null) {
+                                    result = d;
+                                } else {
+                                    // the same pid in several ConfigurationAdmin services
+                                    Properties merged = new Properties();
+                                    MergedConfiguration.merge(result, merged);
+                                    MergedConfiguration.merge(d, merged);
+                                    result = merged;
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Dictionary;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.fusesource.cade.impl.converter.DefaultConverter;
+
+/**
+ * The invocation handler backing configuration proxies.
+ *
+ * The handler is an immutable snapshot of the configuration: all values are
+ * converted once when the handler is created, and calling an accessor only
+ * reads the corresponding slot.  Accessors marked with
+ * {@link org.fusesource.cade.Meta.Lazy} are converted on first access
+ * and memoized.
+ */
+public class ConfigurationHandler implements InvocationHandler {
+
+    private static final Object NULL = new Object();
+
+    private final ConfigurationPlan plan;
+    private final Dictionary<?, ?> properties;
+    private final DefaultConverter converter;
+    private final Object[] values;
+    private final AtomicReferenceArray<Object> lazyValues;
+
+    public ConfigurationHandler(ConfigurationPlan plan, Dictionary<?, ?> properties, DefaultConverter converter) throws Exception {
+        this.plan = plan;
+        this.properties = properties;
+        this.values = plan.getValues(properties, converter);
+        if (plan.isLazy()) {
+            this.converter = converter;
+            this.lazyValues = new AtomicReferenceArray<Object>(values.length);
+        } else {
+            this.converter = null;
+            this.lazyValues = null;
+        }
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Accessor accessor = plan.getAccessor(method);
+        if (accessor == null) {
+            return invokeObjectMethod(proxy, method, args);
+        }
+        if (accessor.isLazy()) {
+            return getLazyValue(accessor);
+        }
+        return values[accessor.getIndex()];
+    }
+
+    private Object getLazyValue(Accessor accessor) throws Exception {
+        int index = accessor.getIndex();
+        Object value = lazyValues.get(index);
+        if (value == null) {
+            value = accessor.getValue(properties, converter);
+            // Concurrent conversions yield equivalent values, so keep the first one
+            lazyValues.compareAndSet(index, null, value != null ? value : NULL);
+            value = lazyValues.get(index);
+        }
+        return value != NULL ? value : null;
+    }
+
+    private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("toString".equals(name)) {
+            return plan.getType().getName() + properties;
+        } else {
+            throw new UnsupportedOperationException(method.toString());
+        }
+    }
+
+}
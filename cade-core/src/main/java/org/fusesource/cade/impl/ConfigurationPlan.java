@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fusesource.cade.impl.converter.DefaultConverter;
+import org.fusesource.cade.impl.generator.ImplementationGenerator;
+
+/**
+ * The accessor plan of a configuration interface.
+ * It is built once per interface and maps each method to its resolved
+ * {@link Accessor}, so that proxies do not have to look at annotations
+ * when they are invoked.
+ *
+ * When possible, configurations are instances of a class generated for the
+ * interface by the {@link ImplementationGenerator}.  Other interfaces fall back
+ * to a {@link Proxy} backed by a {@link ConfigurationHandler}.
+ */
+public class ConfigurationPlan {
+
+    private final Class<?> type;
+    private final Accessor[] accessors;
+    private final Map<Method, Accessor> accessorsByMethod;
+    private final boolean lazy;
+    private final Constructor<?> implementation;
+
+    public ConfigurationPlan(Class<?> type) {
+        this.type = type;
+        Method[] methods = type.getMethods();
+        this.accessors = new Accessor[methods.length];
+        this.accessorsByMethod = new HashMap<Method, Accessor>();
+        boolean lazy = false;
+        for (int i = 0; i < methods.length; i++) {
+            accessors[i] = new Accessor(methods[i], i);
+            accessorsByMethod.put(methods[i], accessors[i]);
+            lazy |= accessors[i].isLazy();
+        }
+        this.lazy = lazy;
+        this.implementation = ImplementationGenerator.generate(this);
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public Accessor[] getAccessors() {
+        return accessors;
+    }
+
+    /**
+     * Retrieve the accessor for the given method.
+     *
+     * @param method a method of the configuration interface
+     * @return the accessor or <code>null</code> if the method does not belong to the interface
+     */
+    public Accessor getAccessor(Method method) {
+        return accessorsByMethod.get(method);
+    }
+
+    /**
+     * Whether at least one accessor is converted lazily.
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Convert the values of all the accessors which are not lazy.
+     * The returned array is indexed by {@link Accessor#getIndex()} and
+     * contains <code>null</code> for lazy accessors.
+     * As for generated binders, a missing value for a primitive accessor,
+     * lazy or not, is rejected with an {@link IllegalArgumentException}.
+     * Such configurations are normally withheld by the validation already,
+     * as primitive properties are implicitly {@link org.fusesource.cade.Meta.Mandatory}.
+     *
+     * @param properties the configuration properties
+     * @param converter the converter to use
+     * @return the converted values
+     * @throws Exception if a value can not be converted
+     */
+    public Object[] getValues(Dictionary<?, ?> properties, DefaultConverter converter) throws Exception {
+        Object[] values = new Object[accessors.length];
+        for (Accessor accessor : accessors) {
+            Object value;
+            if (accessor.isLazy()) {
+                value = null;
+                if (accessor.getSourceValue(properties) == null) {
+                    require(accessor, null);
+                }
+            } else {
+                value = accessor.getValue(properties, converter);
+                require(accessor, value);
+            }
+            values[accessor.getIndex()] = value;
+        }
+        return values;
+    }
+
+    private static void require(Accessor accessor, Object value) {
+        if (value == null && accessor.getMethod().getReturnType().isPrimitive()) {
+            throw new IllegalArgumentException("No value for property " + accessor.getKey());
+        }
+    }
+
+    /**
+     * Create the configuration object for the given properties.
+     *
+     * @param properties the configuration properties
+     * @param converter the converter to use
+     * @param loader the class loader to define the proxy in if needed
+     * @return the configuration object implementing the interface of this plan
+     * @throws Exception if a value can not be converted
+     */
+    public Object newInstance(Dictionary<?, ?> properties, DefaultConverter converter, ClassLoader loader) throws Exception {
+        if (implementation != null) {
+            Object[] values = getValues(properties, converter);
+            try {
+                return implementation.newInstance(values, properties);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+        ConfigurationHandler handler = new ConfigurationHandler(this, properties, converter);
+        return Proxy.newProxyInstance(loader, new Class[] { type }, handler);
+    }
+
+}
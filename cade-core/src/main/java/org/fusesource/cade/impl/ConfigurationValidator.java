@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.fusesource.cade.Meta;
+
+/**
+ * Checks the constraints declared on a configuration interface against the
+ * raw properties, before any value is converted or any configuration object
+ * is built.
+ *
+ * The annotations are read and the patterns compiled once per interface, into
+ * a flat list of the constrained accessors only, so that interfaces without
+ * constraints are not validated at all.  Each element of a multi-valued
+ * property is checked against {@link Meta.Range} and {@link Meta.Pattern}.
+ * Properties of a primitive type are checked as if they were {@link Meta.Mandatory}.
+ */
+public class ConfigurationValidator {
+
+    /**
+     * The validator of interfaces without any constraint.
+     */
+    public static final ConfigurationValidator NONE = new ConfigurationValidator(new Constraint[0]);
+
+    private final Constraint[] constraints;
+
+    private ConfigurationValidator(Constraint[] constraints) {
+        this.constraints = constraints;
+    }
+
+    /**
+     * Build the validator for the given configuration interface.
+     *
+     * @param type the configuration interface
+     * @return the validator, {@link #NONE} if the interface has no constraint
+     */
+    public static ConfigurationValidator compile(Class<?> type) {
+        List<Constraint> constraints = new ArrayList<Constraint>();
+        Method[] methods = type.getMethods();
+        for (int i = 0; i < methods.length; i++) {
+            Method method = methods[i];
+            // primitive properties can not be null, so they are always mandatory
+            boolean mandatory = method.isAnnotationPresent(Meta.Mandatory.class)
+                    || method.getReturnType().isPrimitive();
+            Meta.Range range = method.getAnnotation(Meta.Range.class);
+            Meta.Pattern pattern = method.getAnnotation(Meta.Pattern.class);
+            if (mandatory || range != null || pattern != null) {
+                constraints.add(new Constraint(new Accessor(method, i), mandatory, range,
+                        pattern != null ? Pattern.compile(pattern.value()) : null));
+            }
+        }
+        if (constraints.isEmpty()) {
+            return NONE;
+        }
+        return new ConfigurationValidator(constraints.toArray(new Constraint[constraints.size()]));
+    }
+
+    /**
+     * Check the given properties.
+     *
+     * @param properties the configuration properties
+     * @throws IllegalArgumentException describing the first violated constraint
+     */
+    public void validate(Dictionary<?, ?> properties) {
+        for (Constraint constraint : constraints) {
+            constraint.validate(properties);
+        }
+    }
+
+    private static class Constraint {
+
+        final Accessor accessor;
+        final boolean mandatory;
+        final double min;
+        final double max;
+        final boolean ranged;
+        final Pattern pattern;
+
+        Constraint(Accessor accessor, boolean mandatory, Meta.Range range, Pattern pattern) {
+            this.accessor = accessor;
+            this.mandatory = mandatory;
+            this.ranged = range != null;
+            this.min = range != null ? range.min() : 0;
+            this.max = range != null ? range.max() : 0;
+            this.pattern = pattern;
+        }
+
+        void validate(Dictionary<?, ?> properties) {
+            Object value = accessor.getRawValue(properties);
+            if (value == null) {
+                if (mandatory) {
+                    throw new IllegalArgumentException("Missing mandatory property " + accessor.getKey());
+                }
+                return;
+            }
+            if (!ranged && pattern == null) {
+                return;
+            }
+            if (value.getClass().isArray()) {
+                for (int i = 0, l = Array.getLength(value); i < l; i++) {
+                    validateElement(Array.get(value, i));
+                }
+            } else if (value instanceof Collection) {
+                for (Object element : (Collection<?>) value) {
+                    validateElement(element);
+                }
+            } else {
+                validateElement(value);
+            }
+        }
+
+        private void validateElement(Object value) {
+            if (value == null) {
+                return;
+            }
+            if (ranged) {
+                double d;
+                if (value instanceof Number) {
+                    d = ((Number) value).doubleValue();
+                } else {
+                    try {
+                        d = Double.parseDouble(value.toString().trim());
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Property " + accessor.getKey() + " is not a number: " + value);
+                    }
+                }
+                if (Double.isNaN(d) || d < min || d > max) {
+                    throw new IllegalArgumentException("Property " + accessor.getKey() + " is out of range ["
+                            + min + ", " + max + "]: " + value);
+                }
+            }
+            if (pattern != null && !pattern.matcher(value.toString()).matches()) {
+                throw new IllegalArgumentException("Property " + accessor.getKey() + " does not match "
+                        + pattern.pattern() + ": " + value);
+            }
+        }
+    }
+
+}
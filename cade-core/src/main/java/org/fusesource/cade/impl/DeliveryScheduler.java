@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the deliveries of configurations to Configurables.
+ *
+ * Deliveries to a given Configurable are serial: a Configurable is never called
+ * concurrently, and as each delivery reads the current configuration, requests
+ * received while a delivery is running are collapsed into a single new delivery
+ * once it is done.  Deliveries to different Configurables run in parallel on a
+ * thread pool, or on the calling thread when the pool size is zero.  When the
+ * queue of the pool is full, the calling thread runs the delivery itself.
+ *
+ * On Java 21 and later, deliveries can instead run each on its own virtual
+ * thread, so that Configurables blocking in <code>setup()</code> do not hold
+ * a pool thread.  The per-Configurable ordering is kept as it does not depend
+ * on the executor.
+ *
+ * @param <T> the type of the delivery targets
+ */
+public abstract class DeliveryScheduler<T> {
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+    private static final int RUNNING = 2;
+    private static final int RUNNING_DIRTY = 3;
+
+    private final Map<T, Slot> slots = Collections.synchronizedMap(new IdentityHashMap<T, Slot>());
+    private volatile ExecutorService executor;
+    private int threads;
+    private int queueSize;
+    private boolean virtual;
+
+    /**
+     * Change the thread pool used for deliveries.
+     *
+     * @param threads the number of threads, zero to deliver on the calling thread
+     * @param queueSize the maximum number of deliveries waiting for a thread
+     */
+    public void setPoolSize(int threads, int queueSize) {
+        setPoolSize(threads, queueSize, false);
+    }
+
+    /**
+     * Change the threads used for deliveries.
+     *
+     * When virtual threads are requested but not supported by the running JVM,
+     * deliveries use a pool of platform threads, sized with the given number
+     * of threads or with the number of processors if it is zero.
+     *
+     * @param threads the number of threads, zero to deliver on the calling thread
+     * @param queueSize the maximum number of deliveries waiting for a thread
+     * @param virtual <code>true</code> to run each delivery on a new virtual thread
+     */
+    public synchronized void setPoolSize(int threads, int queueSize, boolean virtual) {
+        threads = Math.max(0, threads);
+        queueSize = Math.max(1, queueSize);
+        if (threads == this.threads && queueSize == this.queueSize && virtual == this.virtual) {
+            return;
+        }
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.virtual = virtual;
+        ExecutorService old = executor;
+        if (virtual) {
+            ExecutorService ex = createVirtualExecutor();
+            if (ex == null) {
+                ex = createExecutor(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), queueSize);
+            }
+            executor = ex;
+        } else {
+            executor = threads > 0 ? createExecutor(threads, queueSize) : null;
+        }
+        if (old != null) {
+            // let the old pool run the deliveries already queued
+            old.shutdown();
+        }
+    }
+
+    protected ExecutorService createExecutor(int threads, int queueSize) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "CADE delivery " + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // queue full or pool being replaced: deliver on the calling thread
+                        r.run();
+                    }
+                });
+    }
+
+    /**
+     * Create an executor starting a new virtual thread for each delivery.
+     * Virtual threads are available since Java 21, so the executor is
+     * created reflectively.
+     *
+     * @return the executor, or <code>null</code> if virtual threads are not supported
+     */
+    protected ExecutorService createVirtualExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            // not running on Java 21 or later
+            return null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Start scheduling deliveries to the given Configurable.
+     *
+     * @param configurable the Configurable
+     */
+    public void add(T configurable) {
+        synchronized (slots) {
+            Slot slot = slots.get(configurable);
+            if (slot == null) {
+                slots.put(configurable, new Slot(configurable));
+            } else {
+                // removed while a delivery was running: keep the slot so that
+                // the deliveries stay serial
+                slot.removed = false;
+            }
+        }
+    }
+
+    /**
+     * Request a delivery to the given Configurable.
+     * Requests for Configurables which have not been added are ignored.
+     *
+     * @param configurable the Configurable
+     */
+    public void submit(T configurable) {
+        Slot slot = slots.get(configurable);
+        if (slot == null || slot.removed) {
+            return;
+        }
+        for (;;) {
+            int state = slot.state.get();
+            if (state == IDLE) {
+                if (slot.state.compareAndSet(IDLE, SCHEDULED)) {
+                    ExecutorService ex = executor;
+                    if (ex != null) {
+                        try {
+                            ex.execute(slot);
+                        } catch (RejectedExecutionException e) {
+                            // the executor has just been replaced or stopped
+                            slot.run();
+                        }
+                    } else {
+                        slot.run();
+                    }
+                    return;
+                }
+            } else if (state == RUNNING) {
+                if (slot.state.compareAndSet(RUNNING, RUNNING_DIRTY)) {
+                    return;
+                }
+            } else {
+                // a delivery is already pending and will read the latest configuration
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check if deliveries to the given Configurable are scheduled,
+     * i.e. if it has been added and not removed since.
+     *
+     * @param configurable the Configurable
+     * @return <code>true</code> if the Configurable is known
+     */
+    public boolean contains(Object configurable) {
+        Slot slot = slots.get(configurable);
+        return slot != null && !slot.removed;
+    }
+
+    /**
+     * Forget about the given Configurable.
+     * A delivery already running will complete, but no new delivery will start.
+     * The slot of the Configurable is only released once it is idle, so that
+     * a Configurable added again meanwhile is still never called concurrently.
+     *
+     * @param configurable the Configurable
+     */
+    public void remove(Object configurable) {
+        synchronized (slots) {
+            Slot slot = slots.get(configurable);
+            if (slot != null) {
+                slot.removed = true;
+                if (slot.state.get() == IDLE) {
+                    slots.remove(configurable);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the thread pool.
+     */
+    public synchronized void dispose() {
+        slots.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        threads = 0;
+        virtual = false;
+    }
+
+    /**
+     * Deliver the current configuration to the given Configurable.
+     *
+     * @param configurable the Configurable
+     */
+    protected abstract void deliver(T configurable);
+
+    private class Slot implements Runnable {
+
+        final T configurable;
+        final AtomicInteger state = new AtomicInteger(IDLE);
+        volatile boolean removed;
+
+        Slot(T configurable) {
+            this.configurable = configurable;
+        }
+
+        public void run() {
+            if (!state.compareAndSet(SCHEDULED, RUNNING)) {
+                return;
+            }
+            for (;;) {
+                if (!removed) {
+                    try {
+                        deliver(configurable);
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                }
+                if (state.compareAndSet(RUNNING, IDLE)) {
+                    if (removed) {
+                        release();
+                    }
+                    return;
+                }
+                // another delivery has been requested meanwhile
+                state.set(RUNNING);
+            }
+        }
+
+        private void release() {
+            synchronized (slots) {
+                if (removed && slots.get(configurable) == this) {
+                    slots.remove(configurable);
+                }
+            }
+        }
+    }
+
+}
@@ -17,25 +17,44 @@
  */
 package org.fusesource.cade.impl;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Type;
-import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Dictionary;
-import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.fusesource.cade.Binder;
 import org.fusesource.cade.Configurable;
+import org.fusesource.cade.Converter;
+import org.fusesource.cade.ExtenderMetrics;
+import org.fusesource.cade.FactoryConfigurable;
+import org.fusesource.cade.IncrementalConfigurable;
 import org.fusesource.cade.Meta;
+import org.fusesource.cade.impl.converter.ConverterRegistry;
 import org.fusesource.cade.impl.converter.DefaultConverter;
 import org.fusesource.cade.impl.converter.GenericType;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.BundleReference;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.cm.Configuration;
@@ -50,39 +69,157 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class Extender implements ConfigurationListener {
 
+    private static final Object NO_BINDER = new Object();
+
     private final BundleContext context;
     private final ServiceRegistration registration;
     private final ServiceTracker configurableTracker;
+    private final ServiceTracker factoryTracker;
     private final ServiceTracker configAdminTracker;
-    private final ConcurrentMap<String, List<Configurable<?>>> configurables;
+    private final ServiceTracker converterTracker;
+    private final ConverterRegistry converters;
+    private final ConfigurableRegistry configurables;
+    private final ConcurrentMap<String, List<FactoryBinding>> factories;
+    private final ConcurrentMap<Class<?>, Class<?>> configurationTypes;
+    private final ConcurrentMap<Class<?>, ConfigurationPlan> plans;
+    private final ConcurrentMap<Class<?>, Object> binders;
+    private final ConcurrentMap<Class<?>, ConfigurationValidator> validators;
+    private final ConcurrentMap<ClassLoader, DefaultConverter> defaultConverters;
+    private final ConcurrentMap<Class<?>, MergedConfiguration> merged;
+    private final ConfigurationCache cache;
+    private final Map<Configurable<?>, Fingerprint> delivered;
+    private final Map<Configurable<?>, Snapshot> snapshots;
+    private final Metrics metrics;
+    private final ConcurrentMap<Object, Long> eventTimes;
+    private final ServiceRegistration metricsRegistration;
+    private ObjectName metricsName;
+    private final DeliveryScheduler<Object> deliveries;
+    private final Coalescer<Object> coalescer;
+    private final Settings settings;
+    private final BundleListener bundleListener;
 
     public Extender(BundleContext ctx) {
         context = ctx;
-        configurables = new ConcurrentHashMap<String, List<Configurable<?>>>();
+        configurables = new ConfigurableRegistry();
+        factories = new ConcurrentHashMap<String, List<FactoryBinding>>();
+        configurationTypes = new ConcurrentHashMap<Class<?>, Class<?>>();
+        plans = new ConcurrentHashMap<Class<?>, ConfigurationPlan>();
+        binders = new ConcurrentHashMap<Class<?>, Object>();
+        validators = new ConcurrentHashMap<Class<?>, ConfigurationValidator>();
+        defaultConverters = new ConcurrentHashMap<ClassLoader, DefaultConverter>();
+        merged = new ConcurrentHashMap<Class<?>, MergedConfiguration>();
+        metrics = new Metrics(new Runnable() {
+            public void run() {
+                resync();
+            }
+        });
+        eventTimes = new ConcurrentHashMap<Object, Long>();
+        cache = new ConfigurationCache(metrics);
+        delivered = Collections.synchronizedMap(new IdentityHashMap<Configurable<?>, Fingerprint>());
+        snapshots = Collections.synchronizedMap(new IdentityHashMap<Configurable<?>, Snapshot>());
+        converters = new ConverterRegistry();
+        bundleListener = new BundleListener() {
+            public void bundleChanged(BundleEvent event) {
+                if (event.getType() == BundleEvent.UNRESOLVED || event.getType() == BundleEvent.UNINSTALLED) {
+                    evict(event.getBundle());
+                }
+            }
+        };
+        context.addBundleListener(bundleListener);
+        deliveries = new DeliveryScheduler<Object>() {
+            protected void deliver(Object target) {
+                if (target instanceof FactoryBinding.Instance) {
+                    updateFactoryInstance((FactoryBinding.Instance) target);
+                } else {
+                    updateConfigurable((Configurable<Object>) target);
+                }
+            }
+        };
+        coalescer = new Coalescer<Object>() {
+            protected void deliver(Object target) {
+                deliveries.submit(target);
+            }
+        };
+        converterTracker = new ConverterTracker(context);
+        converterTracker.open();
         configAdminTracker = new ConfigAdminTracker(context);
         configAdminTracker.open();
+        settings = new Settings();
+        addConfigurable((Configurable) settings);
         configurableTracker = new ConfigurableTracker(context);
         configurableTracker.open();
+        factoryTracker = new FactoryConfigurableTracker(context);
+        factoryTracker.open();
         registration = context.registerService(ConfigurationListener.class.getName(), this, null);
+        metricsRegistration = context.registerService(ExtenderMetrics.class.getName(), metrics, null);
+        try {
+            metricsName = new ObjectName("org.fusesource.cade:type=Extender,name=Metrics");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(metrics, MetricsMBean.class), metricsName);
+        } catch (Exception e) {
+            e.printStackTrace();
+            metricsName = null;
+        }
     }
 
     /**
      * Destroy this object.
      */
     public void dispose() {
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        metricsRegistration.unregister();
         registration.unregister();
+        factoryTracker.close();
         configurableTracker.close();
+        removeConfigurable(settings);
+        coalescer.dispose();
+        deliveries.dispose();
         configAdminTracker.close();
+        converterTracker.close();
+        context.removeBundleListener(bundleListener);
     }
 
     public void configurationEvent(ConfigurationEvent event) {
         try {
             if (event.getPid() != null) {
-                List<Configurable<?>> cfgs = configurables.get(event.getPid());
-                if (cfgs != null) {
-                    for (Configurable<?> cfg : cfgs) {
-                        updateConfigurable((Configurable<Object>) cfg, false);
+                Long received = System.nanoTime();
+                // instances of a factory come and go, so record them under the factory
+                metrics.events.record(event.getFactoryPid() != null ? event.getFactoryPid() : event.getPid());
+                // updated or deleted, the pid will be read again when needed
+                cache.invalidate(event.getPid());
+                if (event.getFactoryPid() != null) {
+                    List<FactoryBinding> bindings = factories.get(event.getFactoryPid());
+                    if (bindings != null) {
+                        // only the instance named by the event is delivered
+                        boolean create = event.getType() == ConfigurationEvent.CM_UPDATED;
+                        for (FactoryBinding binding : bindings) {
+                            FactoryBinding.Instance instance = binding.getInstance(event.getPid(), create);
+                            if (instance != null) {
+                                deliveries.add(instance);
+                                eventTimes.putIfAbsent(instance, received);
+                                coalescer.schedule(instance);
+                            }
+                        }
                     }
+                    return;
+                }
+                Collection<Configurable<?>> cfgs = configurables.get(event.getPid());
+                // only this PID will be merged again, once for each interface
+                Set<Class<?>> types = new HashSet<Class<?>>();
+                for (Configurable<?> cfg : cfgs) {
+                    Class<?> type = getConfigurationType(cfg);
+                    if (types.add(type)) {
+                        getMergedConfiguration(type).invalidate(event.getPid());
+                    }
+                }
+                for (Configurable<?> cfg : cfgs) {
+                    eventTimes.putIfAbsent(cfg, received);
+                    coalescer.schedule((Configurable<Object>) cfg);
                 }
             }
         } catch (Exception e) {
@@ -92,116 +229,528 @@ public class Extender implements ConfigurationListener {
 
     public void addConfigurable(Configurable<Object> configurable) {
         Class configurationType = getConfigurationType(configurable);
-        List<String> pids = getPids(configurationType);
-        for (String pid : pids) {
-            List<Configurable<?>> cfgs = configurables.get(pid);
-            if (cfgs == null) {
-                cfgs = new CopyOnWriteArrayList<Configurable<?>>();
-                List<Configurable<?>> oldCfgs = configurables.putIfAbsent(pid, cfgs);
-                if (oldCfgs != null) {
-                    cfgs = oldCfgs;
+        MergedConfiguration mc = getMergedConfiguration(configurationType);
+        configurables.add(configurable, mc.getPids());
+        // events are not tracked for interfaces without configurables, so read again
+        mc.invalidate();
+        delivered.remove(configurable);
+        snapshots.remove(configurable);
+        deliveries.add(configurable);
+        deliveries.submit(configurable);
+    }
+
+    public void removeConfigurable(Configurable<?> configurable) {
+        configurables.remove(configurable);
+        coalescer.cancel(configurable);
+        // a delivery still running only records its result while the configurable is known
+        synchronized (delivered) {
+            deliveries.remove(configurable);
+            delivered.remove(configurable);
+            snapshots.remove(configurable);
+        }
+        eventTimes.remove(configurable);
+    }
+
+    public void addFactoryConfigurable(FactoryConfigurable<Object> configurable) {
+        Class<?> configurationType = getConfigurationType(configurable);
+        String factoryPid = getPid(configurationType);
+        FactoryBinding binding = new FactoryBinding(configurable, configurationType, factoryPid);
+        List<FactoryBinding> bindings = factories.get(factoryPid);
+        if (bindings == null) {
+            bindings = new CopyOnWriteArrayList<FactoryBinding>();
+            List<FactoryBinding> oldBindings = factories.putIfAbsent(factoryPid, bindings);
+            if (oldBindings != null) {
+                bindings = oldBindings;
+            }
+        }
+        bindings.add(binding);
+        // find the existing instances with a single query per ConfigAdmin
+        Object[] cas = configAdminTracker.getServices();
+        if (cas != null) {
+            long generation = cache.getGeneration();
+            Map<String, Dictionary<?, ?>> index = new HashMap<String, Dictionary<?, ?>>();
+            for (Object ca : cas) {
+                try {
+                    Configuration[] cfgs = ((ConfigurationAdmin) ca).listConfigurations(
+                            "(" + ConfigurationAdmin.SERVICE_FACTORYPID + "=" + factoryPid + ")");
+                    if (cfgs != null) {
+                        for (Configuration cfg : cfgs) {
+                            index.put(cfg.getPid(), cfg.getProperties());
+                            binding.getInstance(cfg.getPid(), true);
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
             }
-            cfgs.add(configurable);
+            if (cas.length == 1) {
+                cache.populate(index, generation);
+            }
+        }
+        for (FactoryBinding.Instance instance : binding.getInstances()) {
+            deliveries.add(instance);
+            deliveries.submit(instance);
         }
-        updateConfigurable(configurable, true);
     }
 
-    public void removeConfigurable(Configurable<?> configurable) {
-        Class configurationType = getConfigurationType(configurable);
-        String pid = configurationType.getName();
-        List<Configurable<?>> cfgs = configurables.get(pid);
-        if (cfgs != null) {
-            cfgs.remove(configurable);
+    public void removeFactoryConfigurable(FactoryConfigurable<?> configurable) {
+        for (List<FactoryBinding> bindings : factories.values()) {
+            for (FactoryBinding binding : bindings) {
+                if (binding.getConfigurable() == configurable) {
+                    bindings.remove(binding);
+                    for (FactoryBinding.Instance instance : binding.getInstances()) {
+                        coalescer.cancel(instance);
+                        deliveries.remove(instance);
+                        eventTimes.remove(instance);
+                    }
+                }
+            }
         }
     }
 
     public void addConfigAdmin(ServiceReference reference, ConfigurationAdmin configAdmin) {
+        // index all the configurations of the new ConfigAdmin in a single query
+        Map<String, Dictionary<?, ?>> index = new HashMap<String, Dictionary<?, ?>>();
+        Map<String, String> factoryPids = new HashMap<String, String>();
+        long generation = cache.getGeneration();
         try {
             Configuration[] cfgs = configAdmin.listConfigurations(null);
             if (cfgs != null) {
                 for (Configuration cfg : cfgs) {
-                    configurationEvent(new ConfigurationEvent(reference, ConfigurationEvent.CM_UPDATED, cfg.getFactoryPid(), cfg.getPid()));
+                    index.put(cfg.getPid(), cfg.getProperties());
+                    if (cfg.getFactoryPid() != null) {
+                        factoryPids.put(cfg.getPid(), cfg.getFactoryPid());
+                    }
                 }
             }
         } catch (Exception e) {
             e.printStackTrace();
+            return;
+        }
+        Object[] cas = configAdminTracker.getServices();
+        if (cas == null) {
+            // the only ConfigAdmin: the listing is the whole content of the pids
+            cache.populate(index, generation);
+        } else {
+            // the new ConfigAdmin comes last when merging the pids it holds
+            Object[] all = new Object[cas.length + 1];
+            System.arraycopy(cas, 0, all, 0, cas.length);
+            all[cas.length] = configAdmin;
+            for (String pid : index.keySet()) {
+                cache.invalidate(pid);
+                cache.get(pid, factoryPids.get(pid), all);
+            }
+        }
+        // find the configurables affected by those configurations
+        Map<Configurable<?>, Class<?>> affected = new IdentityHashMap<Configurable<?>, Class<?>>();
+        for (String pid : index.keySet()) {
+            for (Configurable<?> cfg : configurables.get(pid)) {
+                affected.put(cfg, getConfigurationType(cfg));
+            }
+        }
+        // merge the state of each interface once, then deliver each configurable once
+        for (Class<?> type : new HashSet<Class<?>>(affected.values())) {
+            getMergedConfiguration(type).invalidate();
+        }
+        for (Configurable<?> cfg : affected.keySet()) {
+            deliveries.submit((Configurable<Object>) cfg);
+        }
+        for (Map.Entry<String, String> e : factoryPids.entrySet()) {
+            List<FactoryBinding> bindings = factories.get(e.getValue());
+            if (bindings != null) {
+                for (FactoryBinding binding : bindings) {
+                    FactoryBinding.Instance instance = binding.getInstance(e.getKey(), true);
+                    deliveries.add(instance);
+                    deliveries.submit(instance);
+                }
+            }
         }
     }
 
     public void removeConfigAdmin(ServiceReference reference, ConfigurationAdmin configAdmin) {
+        cache.clear();
+        for (MergedConfiguration mc : merged.values()) {
+            mc.invalidate();
+        }
     }
 
-    protected void updateConfigurable(final Configurable<Object> configurable, boolean force) {
+    /**
+     * Drop all cached configurations and deliver the configurations read again from
+     * the ConfigurationAdmin services to all Configurables.  Configurables whose
+     * configuration did not change are not called.
+     */
+    public void resync() {
+        cache.clear();
+        for (MergedConfiguration mc : merged.values()) {
+            mc.invalidate();
+        }
+        for (Configurable<?> cfg : configurables.getAll()) {
+            deliveries.submit((Configurable<Object>) cfg);
+        }
+        for (List<FactoryBinding> bindings : factories.values()) {
+            for (FactoryBinding binding : bindings) {
+                for (FactoryBinding.Instance instance : binding.getInstances()) {
+                    deliveries.submit(instance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver the configurations again to all Configurables, even if their
+     * configuration did not change, as a {@link Converter} service came or went
+     * and the same properties may now be converted differently.  As the changes
+     * can not be told from the properties, incremental configurables are set up again.
+     */
+    public void redeliver() {
+        delivered.clear();
+        snapshots.clear();
+        for (Configurable<?> cfg : configurables.getAll()) {
+            deliveries.submit((Configurable<Object>) cfg);
+        }
+        for (List<FactoryBinding> bindings : factories.values()) {
+            for (FactoryBinding binding : bindings) {
+                for (FactoryBinding.Instance instance : binding.getInstances()) {
+                    instance.setDelivered(null);
+                    deliveries.submit(instance);
+                }
+            }
+        }
+    }
+
+    /**
+     * The runtime metrics of the extender.
+     */
+    public ExtenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    protected void updateConfigurable(Configurable<Object> configurable) {
+        long start = System.nanoTime();
+        Long received = eventTimes.remove(configurable);
+        String name = configurable.getClass().getName();
         Class<?> configurationType = getConfigurationType(configurable);
-        List<String> pids = getPids(configurationType);
-        // Check if there is any ConfigAdmin with the needed pid
-        Object[] cas = configAdminTracker.getServices();
-        final Properties properties = new Properties();
-        if (cas != null) {
-            for (Object ca : cas) {
-                try {
-                    StringBuilder filter = new StringBuilder();
-                    filter.append("(|");
-                    for (String pid : pids) {
-                        filter.append("(service.pid=").append(pid).append(")");
-                    }
-                    filter.append(")");
-                    Configuration[] cfgs = ((ConfigurationAdmin) ca).listConfigurations(filter.toString());
-                    if (cfgs != null) {
-                        for (Configuration cfg : cfgs) {
-                            Dictionary<?, ?> d = cfg.getProperties();
-                            if (d != null) {
-                                for (Enumeration<?> e = d.keys(); e.hasMoreElements();) {
-                                    String key = (String) e.nextElement();
-                                    if (!properties.containsKey(key)) {
-                                        properties.put(key, d.get(key));
-                                    }
-                                }
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+        int generation = converters.getGeneration();
+        // Merge the configurations of the needed pids from all ConfigAdmins
+        MergedConfiguration.Snapshot snapshot = getMergedConfiguration(configurationType)
+                .get(cache, configAdminTracker.getServices());
+        Properties properties = snapshot.getProperties();
+        // skip the delivery if the configurable already has this configuration
+        Fingerprint fingerprint = snapshot.getFingerprint();
+        if (fingerprint.equals(delivered.get(configurable))) {
+            metrics.suppressed.record(name);
+            metrics.deliveries.record(name, System.nanoTime() - start);
+            return;
+        }
+        // check if there is any valid config to set
+        Object config = null;
+        if (!properties.isEmpty() && isValid(configurationType, properties)) {
+            long conversion = System.nanoTime();
+            try {
+                config = createConfiguration(configurationType, properties, configurable.getClass().getClassLoader());
+            } catch (Exception e) {
+                // the configuration can not be converted, withhold it as an invalid one
+                e.printStackTrace();
+            } finally {
+                metrics.conversions.record(name, System.nanoTime() - conversion);
+            }
+        }
+        long callback = System.nanoTime();
+        if (config == null) {
+            // withhold invalid configurations, as if there were none
+            snapshots.remove(configurable);
+            configurable.deleted();
+        } else if (configurable instanceof IncrementalConfigurable) {
+            Snapshot previous = snapshots.get(configurable);
+            if (previous != null) {
+                Set<String> changes = getChanges(configurationType, previous.properties, properties);
+                ((IncrementalConfigurable<Object>) configurable).update(previous.config, config, changes);
+            } else {
+                configurable.setup(config);
+            }
+        } else {
+            configurable.setup(config);
+        }
+        synchronized (delivered) {
+            // do not record anything for a configurable removed during the callback
+            if (deliveries.contains(configurable)) {
+                if (config != null && configurable instanceof IncrementalConfigurable) {
+                    snapshots.put(configurable, new Snapshot(config, properties));
+                }
+                if (generation == converters.getGeneration()) {
+                    delivered.put(configurable, fingerprint);
+                } else {
+                    // converted while the converters changed, it will be delivered again
+                    delivered.remove(configurable);
                 }
             }
         }
-        // check if there is any config to set
+        recordCallback(name, start, callback, received);
+    }
+
+    protected void updateFactoryInstance(FactoryBinding.Instance instance) {
+        long start = System.nanoTime();
+        Long received = eventTimes.remove(instance);
+        FactoryBinding binding = instance.getBinding();
+        FactoryConfigurable<Object> configurable = binding.getConfigurable();
+        String name = configurable.getClass().getName();
+        int generation = converters.getGeneration();
+        Properties properties = new Properties();
+        MergedConfiguration.merge(cache.get(instance.getPid(), binding.getFactoryPid(), configAdminTracker.getServices()), properties);
         if (properties.isEmpty()) {
-            configurable.deleted();
+            // the instance has been deleted
+            binding.removeInstance(instance);
+            deliveries.remove(instance);
+            if (instance.isSetup()) {
+                instance.setSetup(false);
+                long callback = System.nanoTime();
+                configurable.deleted(instance.getPid());
+                recordCallback(name, start, callback, received);
+            }
+            return;
+        }
+        Fingerprint fingerprint = new Fingerprint(properties);
+        if (fingerprint.equals(instance.getDelivered())) {
+            metrics.suppressed.record(name);
+            metrics.deliveries.record(name, System.nanoTime() - start);
+            return;
+        }
+        Object config = null;
+        if (isValid(binding.getType(), properties)) {
+            long conversion = System.nanoTime();
+            try {
+                config = createConfiguration(binding.getType(), properties, configurable.getClass().getClassLoader());
+            } catch (Exception e) {
+                // the configuration can not be converted, withhold it as an invalid one
+                e.printStackTrace();
+            } finally {
+                metrics.conversions.record(name, System.nanoTime() - conversion);
+            }
+        }
+        long callback = System.nanoTime();
+        if (config == null) {
+            // withhold invalid configurations, as if there were none
+            if (instance.isSetup()) {
+                instance.setSetup(false);
+                configurable.deleted(instance.getPid());
+            }
         } else {
-            InvocationHandler handler = new InvocationHandler() {
-                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                    String name = method.getName();
-                    Meta.Key key = method.getAnnotation(Meta.Key.class);
-                    if (key != null) {
-                        name = key.value();
-                    }
-                    Object value = properties.get(name);
-                    if (value == null && key == null) {
-                        name = name.replace('_', '.');
-                        value = properties.get(name);
-                    }
-                    if (value == null) {
-                        Meta.Default def = method.getAnnotation(Meta.Default.class);
-                        if (def != null) {
-                            value = def.value();
+            instance.setSetup(true);
+            configurable.setup(instance.getPid(), config);
+        }
+        // converted while the converters changed, it will be delivered again
+        instance.setDelivered(generation == converters.getGeneration() ? fingerprint : null);
+        recordCallback(name, start, callback, received);
+    }
+
+    /**
+     * Compute the accessors of a configuration interface whose value differs
+     * between two sets of properties.  Values are compared as they are in the
+     * configuration, before any conversion.
+     *
+     * @param clazz the configuration interface
+     * @param previous the properties previously delivered
+     * @param properties the new properties
+     * @return the names of the changed accessor methods
+     */
+    protected Set<String> getChanges(Class<?> clazz, Dictionary<?, ?> previous, Dictionary<?, ?> properties) {
+        Set<String> changes = new HashSet<String>();
+        for (Accessor accessor : getPlan(clazz).getAccessors()) {
+            Object oldValue = accessor.getSourceValue(previous);
+            Object newValue = accessor.getSourceValue(properties);
+            if (!Arrays.deepEquals(new Object[] { oldValue }, new Object[] { newValue })) {
+                changes.add(accessor.getMethod().getName());
+            }
+        }
+        return Collections.unmodifiableSet(changes);
+    }
+
+    private void recordCallback(String name, long start, long callback, Long received) {
+        long end = System.nanoTime();
+        metrics.callbacks.record(name, end - callback);
+        metrics.deliveries.record(name, end - start);
+        if (received != null) {
+            metrics.latency.record(name, end - received);
+        }
+    }
+
+    /**
+     * Create the configuration object for the given properties, using the binder
+     * generated at build time if any, or the accessor plan of the interface.
+     *
+     * @param clazz the configuration interface
+     * @param properties the properties
+     * @param loader the class loader of the configurable
+     * @return the configuration object
+     * @throws Exception if the configuration can not be converted
+     */
+    protected Object createConfiguration(Class<?> clazz, Dictionary<?, ?> properties, ClassLoader loader) throws Exception {
+        DefaultConverter converter = getConverter(loader);
+        Binder<?> binder = getBinder(clazz);
+        if (binder != null) {
+            return binder.bind(properties, converter);
+        }
+        return getPlan(clazz).newInstance(properties, converter, loader);
+    }
+
+    /**
+     * Get the converter for the given class loader, which keeps the conversions
+     * involving the classes of that loader from one delivery to the next.
+     *
+     * @param loader the class loader of the configurable
+     * @return the converter
+     */
+    protected DefaultConverter getConverter(ClassLoader loader) {
+        if (loader == null) {
+            return new DefaultConverter(loader, converters);
+        }
+        DefaultConverter converter = defaultConverters.get(loader);
+        if (converter == null) {
+            converter = new DefaultConverter(loader, converters);
+            DefaultConverter oldConverter = defaultConverters.putIfAbsent(loader, converter);
+            if (oldConverter != null) {
+                converter = oldConverter;
+            }
+        }
+        return converter;
+    }
+
+    /**
+     * Check the constraints of the configuration interface against the given properties.
+     *
+     * @param clazz the configuration interface
+     * @param properties the merged properties
+     * @return <code>true</code> if the properties can be delivered
+     */
+    protected boolean isValid(Class<?> clazz, Dictionary<?, ?> properties) {
+        ConfigurationValidator validator = validators.get(clazz);
+        if (validator == null) {
+            validator = ConfigurationValidator.compile(clazz);
+            validators.put(clazz, validator);
+        }
+        try {
+            validator.validate(properties);
+            return true;
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * The number of deliveries which have been skipped because the
+     * configuration of the Configurable did not change.
+     */
+    public long getSuppressedDeliveries() {
+        return metrics.getSuppressedCount();
+    }
+
+    /**
+     * Release the metadata cached for the classes of a bundle which has been
+     * refreshed or uninstalled, so that its class loader can be collected.
+     *
+     * @param bundle the bundle
+     */
+    protected void evict(Bundle bundle) {
+        for (Map.Entry<Class<?>, Class<?>> e : configurationTypes.entrySet()) {
+            if (isFrom(e.getKey(), bundle) || isFrom(e.getValue(), bundle)) {
+                configurationTypes.remove(e.getKey());
+            }
+        }
+        evict(plans, bundle);
+        evict(binders, bundle);
+        evict(validators, bundle);
+        for (Iterator<ClassLoader> it = defaultConverters.keySet().iterator(); it.hasNext();) {
+            ClassLoader loader = it.next();
+            if (loader instanceof BundleReference && ((BundleReference) loader).getBundle() == bundle) {
+                it.remove();
+            }
+        }
+        evict(merged, bundle);
+        converters.evict(bundle);
+    }
+
+    private void evict(Map<Class<?>, ?> cache, Bundle bundle) {
+        for (Iterator<Class<?>> it = cache.keySet().iterator(); it.hasNext();) {
+            if (isFrom(it.next(), bundle)) {
+                it.remove();
+            }
+        }
+    }
+
+    private boolean isFrom(Class<?> clazz, Bundle bundle) {
+        return FrameworkUtil.getBundle(clazz) == bundle;
+    }
+
+    /**
+     * Get the accessor plan for the given configuration interface,
+     * building it on first use.
+     *
+     * @param clazz the configuration interface
+     * @return the plan
+     */
+    protected ConfigurationPlan getPlan(Class<?> clazz) {
+        ConfigurationPlan plan = plans.get(clazz);
+        if (plan == null) {
+            plan = new ConfigurationPlan(clazz);
+            ConfigurationPlan oldPlan = plans.putIfAbsent(clazz, plan);
+            if (oldPlan != null) {
+                plan = oldPlan;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Get the merged configuration of the PIDs of the given configuration interface.
+     *
+     * @param clazz the configuration interface
+     * @return the merged configuration
+     */
+    protected MergedConfiguration getMergedConfiguration(Class<?> clazz) {
+        MergedConfiguration mc = merged.get(clazz);
+        if (mc == null) {
+            mc = new MergedConfiguration(getPids(clazz));
+            MergedConfiguration oldMc = merged.putIfAbsent(clazz, mc);
+            if (oldMc != null) {
+                mc = oldMc;
+            }
+        }
+        return mc;
+    }
+
+    /**
+     * Get the binder generated at build time for the given configuration interface.
+     *
+     * @param clazz the configuration interface
+     * @return the binder or <code>null</code> if there is none
+     */
+    protected Binder<?> getBinder(Class<?> clazz) {
+        Object binder = binders.get(clazz);
+        if (binder == null) {
+            binder = NO_BINDER;
+            ClassLoader loader = clazz.getClassLoader();
+            if (loader != null) {
+                try {
+                    Class<?> binderClass = loader.loadClass(clazz.getName() + Binder.SUFFIX);
+                    if (Binder.class.isAssignableFrom(binderClass)) {
+                        Binder<?> b = (Binder<?>) binderClass.newInstance();
+                        if (b.getType() == clazz) {
+                            binder = b;
                         }
                     }
-                    Meta.Separated sep = method.getAnnotation(Meta.Separated.class);
-                    if (value != null && sep != null) {
-                        value = value.toString().split(sep.value());
-                    }
-                    if (value != null) {
-                        value = new DefaultConverter(configurable.getClass().getClassLoader())
-                                .convert(value, new GenericType(method.getGenericReturnType()));
-                    }
-                    return value;
+                } catch (ClassNotFoundException e) {
+                    // no binder has been generated for this interface
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
-            };
-            Object proxy = Proxy.newProxyInstance(configurable.getClass().getClassLoader(), new Class[]{configurationType}, handler);
-            configurable.setup(proxy);
+            }
+            Object oldBinder = binders.putIfAbsent(clazz, binder);
+            if (oldBinder != null) {
+                binder = oldBinder;
+            }
         }
+        return binder != NO_BINDER ? (Binder<?>) binder : null;
     }
 
     /**
@@ -211,6 +760,10 @@ public class Extender implements ConfigurationListener {
      * @return the associated PIDs
      */
     protected List<String> getPids(Class<?> clazz) {
+        Binder<?> binder = getBinder(clazz);
+        if (binder != null) {
+            return Arrays.asList(binder.getPids());
+        }
         List<String> pids = new ArrayList<String>();
         getPids(clazz, pids);
         return pids;
@@ -248,19 +801,78 @@ public class Extender implements ConfigurationListener {
 
     /**
      * Retrieve the interface used for the configuration given the configurable object.
-     * This is the parameterized type of the Configurable class.
+     * This is the parameterized type of the {@link Configurable}, {@link IncrementalConfigurable}
+     * or {@link FactoryConfigurable} class, which is cached for each class.
      *
      * @param configurable the configurable object
      * @return the configuration interface
      */
-    protected Class<?> getConfigurationType(Configurable<?> configurable) {
-        for (Type t : configurable.getClass().getGenericInterfaces()) {
+    protected Class<?> getConfigurationType(Object configurable) {
+        Class<?> clazz = configurable.getClass();
+        Class<?> type = configurationTypes.get(clazz);
+        if (type == null) {
+            type = resolveConfigurationType(clazz);
+            configurationTypes.put(clazz, type);
+        }
+        return type;
+    }
+
+    private Class<?> resolveConfigurationType(Class<?> clazz) {
+        for (Type t : clazz.getGenericInterfaces()) {
             GenericType gt = new GenericType(t);
-            if (gt.getRawClass() == Configurable.class) {
+            if (gt.getRawClass() == Configurable.class || gt.getRawClass() == FactoryConfigurable.class
+                    || gt.getRawClass() == IncrementalConfigurable.class) {
                 return gt.getActualTypeArgument(0).getRawClass();
             }
         }
-        throw new IllegalStateException("Unable to determine configuration type for class " + configurable.getClass());
+        throw new IllegalStateException("Unable to determine configuration type for class " + clazz);
+    }
+
+    /**
+     * Apply the extender's own configuration.
+     *
+     * @param config the extender configuration
+     */
+    protected void configure(ExtenderConfig config) {
+        coalescer.setDelays(config.coalesceQuietPeriod(), config.coalesceMaxDelay());
+        deliveries.setPoolSize(config.deliveryThreads(), config.deliveryQueueSize(), config.deliveryVirtualThreads());
+        converters.setValueCacheSize(config.conversionCacheSize());
+    }
+
+    /**
+     * The last configuration delivered to an {@link IncrementalConfigurable},
+     * along with the properties it has been created from.
+     */
+    private static class Snapshot {
+
+        final Object config;
+        final Properties properties;
+
+        Snapshot(Object config, Properties properties) {
+            this.config = config;
+            this.properties = properties;
+        }
+    }
+
+    /**
+     * Receives the configuration of the extender itself.
+     */
+    public class Settings implements Configurable<ExtenderConfig> {
+
+        public void setup(ExtenderConfig config) {
+            configure(config);
+        }
+
+        public void deleted() {
+            // revert to the default values
+            ClassLoader loader = getClass().getClassLoader();
+            try {
+                configure((ExtenderConfig) getPlan(ExtenderConfig.class)
+                        .newInstance(new Properties(), getConverter(loader), loader));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
@@ -286,6 +898,29 @@ public class Extender implements ConfigurationListener {
         }
     }
 
+    /**
+     * A tracker for OSGi services implementing the {@link FactoryConfigurable} interface.
+     */
+    public class FactoryConfigurableTracker extends ServiceTracker {
+
+        public FactoryConfigurableTracker(BundleContext context) {
+            super(context, FactoryConfigurable.class.getName(), null);
+        }
+
+        @Override
+        public Object addingService(ServiceReference reference) {
+            Object o = super.addingService(reference);
+            addFactoryConfigurable((FactoryConfigurable<Object>) o);
+            return o;
+        }
+
+        @Override
+        public void removedService(ServiceReference reference, Object service) {
+            removeFactoryConfigurable((FactoryConfigurable<?>) service);
+            super.removedService(reference, service);
+        }
+    }
+
     /**
      * A tracker for ConfigurationAdmin services.
      */
@@ -309,4 +944,37 @@ public class Extender implements ConfigurationListener {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * A tracker for custom {@link Converter} services.
+     */
+    public class ConverterTracker extends ServiceTracker {
+
+        public ConverterTracker(BundleContext context) {
+            super(context, Converter.class.getName(), null);
+        }
+
+        @Override
+        public Object addingService(ServiceReference reference) {
+            Object o = super.addingService(reference);
+            converters.addConverter(reference, (Converter) o);
+            redeliver();
+            return o;
+        }
+
+        @Override
+        public void modifiedService(ServiceReference reference, Object service) {
+            converters.removeConverter(reference);
+            converters.addConverter(reference, (Converter) service);
+            redeliver();
+            super.modifiedService(reference, service);
+        }
+
+        @Override
+        public void removedService(ServiceReference reference, Object service) {
+            converters.removeConverter(reference);
+            redeliver();
+            super.removedService(reference, service);
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import org.fusesource.cade.Meta;
+
+/**
+ * The configuration of the extender itself, delivered by the extender
+ * like any other configuration.
+ */
+@Meta.PID(ExtenderConfig.PID)
+public interface ExtenderConfig {
+
+    String PID = "org.fusesource.cade";
+
+    /**
+     * The time in milliseconds without any new event for a Configurable
+     * before its configuration is delivered.  Events received during that
+     * period are collapsed into a single delivery.  Zero disables coalescing.
+     */
+    @Meta.Key("coalesce.quietPeriod")
+    @Meta.Default("0")
+    long coalesceQuietPeriod();
+
+    /**
+     * The maximum time in milliseconds a delivery can be postponed by
+     * coalescing, for Configurables receiving a continuous flow of events.
+     * Zero means no limit.
+     */
+    @Meta.Key("coalesce.maxDelay")
+    @Meta.Default("0")
+    long coalesceMaxDelay();
+
+    /**
+     * The number of threads used to deliver configurations.  Deliveries to a
+     * given Configurable are always serial, while different Configurables are
+     * configured in parallel.  Zero delivers on the thread reporting the event.
+     */
+    @Meta.Key("delivery.threads")
+    @Meta.Default("0")
+    int deliveryThreads();
+
+    /**
+     * The maximum number of deliveries waiting for a thread.  When the queue
+     * is full, the thread reporting the event performs the delivery itself.
+     */
+    @Meta.Key("delivery.queueSize")
+    @Meta.Default("1024")
+    int deliveryQueueSize();
+
+    /**
+     * Run each delivery on its own virtual thread, for Configurables blocking
+     * in their callbacks.  This requires Java 21 or later: on older JVMs,
+     * deliveries fall back to a pool of {@link #deliveryThreads()} platform
+     * threads, or one per processor if that is zero.
+     */
+    @Meta.Key("delivery.virtualThreads")
+    @Meta.Default("false")
+    boolean deliveryVirtualThreads();
+
+    /**
+     * The maximum number of values converted from strings kept in memory,
+     * for the types which are expensive to build: patterns, classes, types,
+     * locales and properties.  Zero disables the cache.
+     */
+    @Meta.Key("conversion.cacheSize")
+    @Meta.Default("1024")
+    int conversionCacheSize();
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.fusesource.cade.FactoryConfigurable;
+
+/**
+ * The binding of a {@link FactoryConfigurable} to a factory PID, holding one
+ * {@link Instance} per configuration of the factory, indexed by instance PID.
+ *
+ * Instances are the targets of deliveries, so that an event for one instance
+ * only reads and delivers this instance, whatever the size of the factory.
+ */
+public class FactoryBinding {
+
+    private final FactoryConfigurable<Object> configurable;
+    private final Class<?> type;
+    private final String factoryPid;
+    private final ConcurrentMap<String, Instance> instances = new ConcurrentHashMap<String, Instance>();
+
+    public FactoryBinding(FactoryConfigurable<Object> configurable, Class<?> type, String factoryPid) {
+        this.configurable = configurable;
+        this.type = type;
+        this.factoryPid = factoryPid;
+    }
+
+    public FactoryConfigurable<Object> getConfigurable() {
+        return configurable;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public String getFactoryPid() {
+        return factoryPid;
+    }
+
+    /**
+     * Get the instance for the given PID.
+     *
+     * @param pid the instance PID
+     * @param create whether to create the instance if it is not known yet
+     * @return the instance, or <code>null</code> if not known and not created
+     */
+    public Instance getInstance(String pid, boolean create) {
+        Instance instance = instances.get(pid);
+        if (instance == null && create) {
+            instance = new Instance(this, pid);
+            Instance oldInstance = instances.putIfAbsent(pid, instance);
+            if (oldInstance != null) {
+                instance = oldInstance;
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Forget about an instance after its deletion has been delivered.
+     *
+     * @param instance the instance
+     * @return <code>true</code> if the instance was known
+     */
+    public boolean removeInstance(Instance instance) {
+        return instances.remove(instance.getPid(), instance);
+    }
+
+    public Collection<Instance> getInstances() {
+        return instances.values();
+    }
+
+    /**
+     * A configuration of the factory, as delivered to the bound configurable.
+     */
+    public static class Instance {
+
+        private final FactoryBinding binding;
+        private final String pid;
+        private volatile Fingerprint delivered;
+        private volatile boolean setup;
+
+        Instance(FactoryBinding binding, String pid) {
+            this.binding = binding;
+            this.pid = pid;
+        }
+
+        public FactoryBinding getBinding() {
+            return binding;
+        }
+
+        public String getPid() {
+            return pid;
+        }
+
+        /**
+         * The fingerprint of the last configuration handled, delivered or withheld,
+         * or <code>null</code> if none has been handled.
+         */
+        public Fingerprint getDelivered() {
+            return delivered;
+        }
+
+        public void setDelivered(Fingerprint delivered) {
+            this.delivered = delivered;
+        }
+
+        /**
+         * Whether the configurable has been set up for this instance
+         * and not told about its deletion since.
+         */
+        public boolean isSetup() {
+            return setup;
+        }
+
+        public void setSetup(boolean setup) {
+            this.setup = setup;
+        }
+    }
+
+}
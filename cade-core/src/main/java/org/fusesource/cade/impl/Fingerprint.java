@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The content of merged configuration properties, used to detect deliveries
+ * which would not change anything for a Configurable.
+ *
+ * Values are compared deeply, so that array values coming from different
+ * reads of the same configuration are considered equal.  The hash is computed
+ * once, so that comparing different contents is usually a single test.
+ */
+public final class Fingerprint {
+
+    private final Map<?, ?> properties;
+    private final int hash;
+
+    /**
+     * @param properties the merged properties, which must not be modified afterwards
+     */
+    public Fingerprint(Map<?, ?> properties) {
+        this.properties = properties;
+        int h = 0;
+        for (Map.Entry<?, ?> e : properties.entrySet()) {
+            h += e.getKey().hashCode() ^ Arrays.deepHashCode(new Object[] { e.getValue() });
+        }
+        this.hash = h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Fingerprint)) {
+            return false;
+        }
+        Fingerprint other = (Fingerprint) o;
+        if (hash != other.hash || properties.size() != other.properties.size()) {
+            return false;
+        }
+        for (Map.Entry<?, ?> e : properties.entrySet()) {
+            Object value = other.properties.get(e.getKey());
+            if (value == null || !Arrays.deepEquals(new Object[] { e.getValue() }, new Object[] { value })) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The merged properties of the PIDs of a configuration interface.
+ *
+ * The properties are merged from the {@link ConfigurationCache} when first needed
+ * after a change, and then shared by all the Configurables using this interface,
+ * so that an event for a PID causes a single merge whatever the number of
+ * Configurables to update.
+ *
+ * The PIDs are layered in the order of {@link #getPids()}: the PID of the
+ * interface itself first, then the PIDs of the interfaces it extends, depth
+ * first and in declaration order.  When a key is defined in several PIDs, the
+ * value of the first PID wins.  The layer owning each key is remembered, so
+ * that a change to a PID only merges the keys of that PID again, whatever the
+ * number of PIDs of the interface.
+ */
+public class MergedConfiguration {
+
+    private final List<String> pids;
+    private final Map<String, Integer> layerIndex = new HashMap<String, Integer>();
+    private final AtomicInteger version = new AtomicInteger();
+    private final ConcurrentMap<String, Boolean> dirty = new ConcurrentHashMap<String, Boolean>();
+    private volatile boolean allDirty = true;
+    private volatile Snapshot snapshot;
+
+    // guarded by this
+    private final Dictionary<?, ?>[] layers;
+    private final Map<String, Integer> owners = new HashMap<String, Integer>();
+    private Properties properties = new Properties();
+    private boolean shared;
+
+    public MergedConfiguration(List<String> pids) {
+        List<String> distinct = new ArrayList<String>(pids.size());
+        for (String pid : pids) {
+            // a PID inherited twice is shadowed by its first occurrence
+            if (!layerIndex.containsKey(pid)) {
+                layerIndex.put(pid, distinct.size());
+                distinct.add(pid);
+            }
+        }
+        this.pids = distinct;
+        this.layers = new Dictionary<?, ?>[distinct.size()];
+    }
+
+    public List<String> getPids() {
+        return pids;
+    }
+
+    /**
+     * Mark all the properties as outdated, so that they are read again on next access.
+     */
+    public void invalidate() {
+        allDirty = true;
+        version.incrementAndGet();
+    }
+
+    /**
+     * Mark the properties of the given PID as outdated, so that only this PID
+     * is read and merged again on next access.
+     *
+     * @param pid the PID which has changed
+     */
+    public void invalidate(String pid) {
+        if (layerIndex.containsKey(pid)) {
+            dirty.put(pid, Boolean.TRUE);
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the merged properties, merging the outdated PIDs again if they have
+     * changed since last read.
+     *
+     * @param cache the configuration cache
+     * @param configAdmins the ConfigurationAdmin services, may be <code>null</code>
+     * @return the current snapshot
+     */
+    public Snapshot get(ConfigurationCache cache, Object[] configAdmins) {
+        Snapshot s = snapshot;
+        if (s == null || s.version != version.get()) {
+            synchronized (this) {
+                s = snapshot;
+                int v = version.get();
+                if (s == null || s.version != v) {
+                    boolean changed = false;
+                    if (allDirty) {
+                        allDirty = false;
+                        dirty.clear();
+                        for (int i = 0; i < layers.length; i++) {
+                            changed |= update(i, cache.get(pids.get(i), configAdmins));
+                        }
+                    } else {
+                        for (String pid : dirty.keySet()) {
+                            dirty.remove(pid);
+                            int i = layerIndex.get(pid);
+                            changed |= update(i, cache.get(pid, configAdmins));
+                        }
+                    }
+                    if (changed || s == null) {
+                        s = new Snapshot(v, properties);
+                        shared = true;
+                    } else {
+                        s = new Snapshot(v, s);
+                    }
+                    snapshot = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Replace the dictionary of a layer, and merge the keys it defines or used
+     * to define again.  The merged properties are copied before being modified
+     * if they are held by a snapshot.
+     *
+     * @return <code>true</code> if the layer has changed
+     */
+    private boolean update(int index, Dictionary<?, ?> dictionary) {
+        Dictionary<?, ?> old = layers[index];
+        if (old == dictionary) {
+            // the cache returns the same dictionary until the PID changes
+            return false;
+        }
+        layers[index] = dictionary;
+        if (shared) {
+            properties = (Properties) properties.clone();
+            shared = false;
+        }
+        if (old != null) {
+            for (Enumeration<?> e = old.keys(); e.hasMoreElements();) {
+                String key = (String) e.nextElement();
+                Integer owner = owners.get(key);
+                if (owner != null && owner == index && (dictionary == null || dictionary.get(key) == null)) {
+                    // the key is gone from this layer, look for it in the next ones
+                    owners.remove(key);
+                    properties.remove(key);
+                    for (int i = index + 1; i < layers.length; i++) {
+                        Object value = layers[i] != null ? layers[i].get(key) : null;
+                        if (value != null) {
+                            owners.put(key, i);
+                            properties.put(key, value);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        if (dictionary != null) {
+            for (Enumeration<?> e = dictionary.keys(); e.hasMoreElements();) {
+                String key = (String) e.nextElement();
+                Integer owner = owners.get(key);
+                if (owner == null || owner >= index) {
+                    owners.put(key, index);
+                    properties.put(key, dictionary.get(key));
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merge the given dictionary into the given properties,
+     * keeping the values already present.
+     *
+     * @param dictionary the dictionary to merge, may be <code>null</code>
+     * @param properties the properties to fill
+     */
+    public static void merge(Dictionary<?, ?> dictionary, Properties properties) {
+        if (dictionary != null) {
+            for (Enumeration<?> e = dictionary.keys(); e.hasMoreElements();) {
+                String key = (String) e.nextElement();
+                if (!properties.containsKey(key)) {
+                    properties.put(key, dictionary.get(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * The merged properties read for a given version.
+     * The properties must not be modified.
+     */
+    public static class Snapshot {
+
+        final int version;
+        final Properties properties;
+        final Fingerprint fingerprint;
+
+        Snapshot(int version, Properties properties) {
+            this.version = version;
+            this.properties = properties;
+            this.fingerprint = new Fingerprint(properties);
+        }
+
+        Snapshot(int version, Snapshot previous) {
+            this.version = version;
+            this.properties = previous.properties;
+            this.fingerprint = previous.fingerprint;
+        }
+
+        public Properties getProperties() {
+            return properties;
+        }
+
+        public Fingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        public boolean isEmpty() {
+            return properties.isEmpty();
+        }
+    }
+
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.fusesource.cade.ExtenderMetrics;
+
+/**
+ * The metrics recorded by the extender.
+ *
+ * Recording is lock-free: each measure keeps its statistics in atomic counters,
+ * and the statistics of a key are looked up in a concurrent map which only
+ * locks when a key is seen for the first time.
+ */
+public class Metrics implements ExtenderMetrics, MetricsMBean {
+
+    private static final int BUCKETS = 65;
+
+    final Measure events = new Measure(EVENTS);
+    final Measure queries = new Measure(QUERIES);
+    final Measure deliveries = new Measure(DELIVERIES);
+    final Measure suppressed = new Measure(SUPPRESSED);
+    final Measure conversions = new Measure(CONVERSIONS);
+    final Measure callbacks = new Measure(CALLBACKS);
+    final Measure latency = new Measure(LATENCY);
+
+    final AtomicLong cacheHits = new AtomicLong();
+    final AtomicLong cacheMisses = new AtomicLong();
+
+    private final Map<String, Measure> measures;
+    private final Runnable resync;
+
+    /**
+     * @param resync the task resynchronizing all Configurables
+     */
+    public Metrics(Runnable resync) {
+        this.resync = resync;
+        Map<String, Measure> m = new LinkedHashMap<String, Measure>();
+        for (Measure measure : new Measure[] { events, queries, deliveries, suppressed, conversions, callbacks, latency }) {
+            m.put(measure.name, measure);
+        }
+        measures = Collections.unmodifiableMap(m);
+    }
+
+    public String[] getMeasures() {
+        return measures.keySet().toArray(new String[measures.size()]);
+    }
+
+    public Statistics getStatistics(String measure) {
+        Measure m = measures.get(measure);
+        return m != null ? m.total : null;
+    }
+
+    public Map<String, Statistics> getStatisticsByKey(String measure) {
+        Measure m = measures.get(measure);
+        return m != null ? Collections.<String, Statistics>unmodifiableMap(new HashMap<String, Recorder>(m.byKey)) : null;
+    }
+
+    public void reset() {
+        for (Measure measure : measures.values()) {
+            measure.reset();
+        }
+        cacheHits.set(0);
+        cacheMisses.set(0);
+    }
+
+    public void resync() {
+        resync.run();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getEventCount() {
+        return events.total.getCount();
+    }
+
+    public long getDeliveryCount() {
+        return deliveries.total.getCount();
+    }
+
+    public long getSuppressedCount() {
+        return suppressed.total.getCount();
+    }
+
+    public long getQueryCount() {
+        return queries.total.getCount();
+    }
+
+    public String[] getReport(String measure) {
+        Measure m = measures.get(measure);
+        if (m == null) {
+            throw new IllegalArgumentException("Unknown measure " + measure + ", expected one of " + measures.keySet());
+        }
+        List<String> lines = new ArrayList<String>();
+        lines.add(format("*", m.total));
+        for (Map.Entry<String, Recorder> e : new TreeMap<String, Recorder>(m.byKey).entrySet()) {
+            lines.add(format(e.getKey(), e.getValue()));
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    private static String format(String key, Statistics s) {
+        return key + ": count=" + s.getCount()
+                + " mean=" + (long) s.getMeanTime() + "ns"
+                + " p50=" + s.getPercentileTime(50) + "ns"
+                + " p99=" + s.getPercentileTime(99) + "ns"
+                + " max=" + s.getMaxTime() + "ns";
+    }
+
+    /**
+     * A measure, recorded in total and by key.
+     */
+    static class Measure {
+
+        final String name;
+        final Recorder total = new Recorder();
+        final ConcurrentMap<String, Recorder> byKey = new ConcurrentHashMap<String, Recorder>();
+
+        Measure(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Record an occurrence without duration.
+         *
+         * @param key the PID or class name
+         */
+        void record(String key) {
+            record(key, 0);
+        }
+
+        /**
+         * Record an occurrence.
+         *
+         * @param key the PID or class name
+         * @param nanos the duration in nanoseconds
+         */
+        void record(String key, long nanos) {
+            total.record(nanos);
+            Recorder recorder = byKey.get(key);
+            if (recorder == null) {
+                recorder = new Recorder();
+                Recorder oldRecorder = byKey.putIfAbsent(key, recorder);
+                if (oldRecorder != null) {
+                    recorder = oldRecorder;
+                }
+            }
+            recorder.record(nanos);
+        }
+
+        void reset() {
+            total.reset();
+            byKey.clear();
+        }
+    }
+
+    static class Recorder implements Statistics {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            count.incrementAndGet();
+            totalTime.addAndGet(nanos);
+            for (long max = maxTime.get(); nanos > max && !maxTime.compareAndSet(max, nanos); max = maxTime.get()) {
+                // retry with the new maximum
+            }
+            histogram.incrementAndGet(bucket(nanos));
+        }
+
+        void reset() {
+            count.set(0);
+            totalTime.set(0);
+            maxTime.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.set(i, 0);
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalTime() {
+            return totalTime.get();
+        }
+
+        public long getMaxTime() {
+            return maxTime.get();
+        }
+
+        public double getMeanTime() {
+            long c = count.get();
+            return c > 0 ? (double) totalTime.get() / c : 0;
+        }
+
+        public long getPercentileTime(double percentile) {
+            long[] buckets = getHistogram();
+            long total = 0;
+            for (long b : buckets) {
+                total += b;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    long bound = i < BUCKETS - 1 ? (1L << i) - 1 : Long.MAX_VALUE;
+                    return Math.min(bound, maxTime.get());
+                }
+            }
+            return 0;
+        }
+
+        public long[] getHistogram() {
+            long[] buckets = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = histogram.get(i);
+            }
+            return buckets;
+        }
+
+        private static int bucket(long nanos) {
+            return BUCKETS - 1 - Long.numberOfLeadingZeros(nanos);
+        }
+    }
+
+}
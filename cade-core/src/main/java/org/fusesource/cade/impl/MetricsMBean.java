@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+/**
+ * The JMX management interface of the extender {@link Metrics}.
+ */
+public interface MetricsMBean {
+
+    long getEventCount();
+
+    long getDeliveryCount();
+
+    long getSuppressedCount();
+
+    long getQueryCount();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    String[] getMeasures();
+
+    /**
+     * Describe the statistics of a measure, in total and by key, one line each.
+     *
+     * @param measure the name of the measure
+     * @return the description
+     */
+    String[] getReport(String measure);
+
+    void reset();
+
+    /**
+     * Read all configurations again and deliver the ones which have changed.
+     */
+    void resync();
+
+}
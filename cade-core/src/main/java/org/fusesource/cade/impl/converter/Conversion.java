@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl.converter;
+
+/**
+ * A conversion from a given source class to a given target type,
+ * resolved once by the {@link DefaultConverter} and reused for
+ * all the values of that class.
+ */
+interface Conversion {
+
+    /**
+     * Convert the value.
+     *
+     * @param converter the converter, giving access to the class loader and nested conversions
+     * @param value the non null value to convert, which is an instance of the source class
+     * @return the converted value
+     * @throws Exception if the value can not be converted
+     */
+    Object convert(DefaultConverter converter, Object value) throws Exception;
+
+}
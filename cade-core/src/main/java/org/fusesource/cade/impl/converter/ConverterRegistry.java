@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl.converter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.fusesource.cade.Converter;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * The set of custom {@link Converter} services, indexed by the name of
+ * the raw class they produce.
+ *
+ * The index is rebuilt when a converter comes or goes, which is rare, so that
+ * lookups are a plain map access.  Untyped converters are kept out of the index
+ * and merged by ranking with the typed ones on lookup, which only happens when
+ * a {@link DefaultConverter} resolves a conversion.  Each change also bumps the generation of
+ * the registry and clears the shared conversion cache, so that conversions
+ * resolved by {@link DefaultConverter}s are resolved again.
+ *
+ * The registry also holds the cache of the values converted from strings which
+ * are expensive to build, shared by all the {@link DefaultConverter}s using it.
+ */
+public class ConverterRegistry {
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    /**
+     * The default maximum number of cached converted values.
+     */
+    public static final int DEFAULT_VALUE_CACHE_SIZE = 1024;
+
+    /**
+     * A registry without any converter nor value cache, used by default.
+     */
+    static final ConverterRegistry NONE = new ConverterRegistry(0);
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final ConcurrentMap<DefaultConverter.Key, Conversion> sharedConversions = new ConcurrentHashMap<DefaultConverter.Key, Conversion>();
+    private volatile Map<String, Entry[]> index = Collections.emptyMap();
+    private volatile Entry[] untyped = NO_ENTRIES;
+    private volatile int generation;
+    private final ValueCache values;
+
+    public ConverterRegistry() {
+        this(DEFAULT_VALUE_CACHE_SIZE);
+    }
+
+    /**
+     * @param valueCacheSize the maximum number of cached converted values, zero to disable the cache
+     */
+    public ConverterRegistry(int valueCacheSize) {
+        this.values = new ValueCache(valueCacheSize);
+    }
+
+    public synchronized void addConverter(ServiceReference reference, Converter converter) {
+        entries.add(new Entry(reference, converter));
+        Collections.sort(entries);
+        rebuild();
+    }
+
+    public synchronized void removeConverter(ServiceReference reference) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).reference.equals(reference)) {
+                entries.remove(i);
+                break;
+            }
+        }
+        rebuild();
+    }
+
+    /**
+     * Get the converters to consult for the given target class, in ranking order:
+     * the ones registered for this class merged with the untyped ones.
+     *
+     * @param clazz the raw target class
+     * @return the converters, never <code>null</code>
+     */
+    public Converter[] getConverters(Class clazz) {
+        Entry[] typed = index.get(clazz.getName());
+        Entry[] untyped = this.untyped;
+        if (typed == null) {
+            typed = NO_ENTRIES;
+        }
+        Converter[] converters = new Converter[typed.length + untyped.length];
+        int t = 0;
+        int u = 0;
+        while (t + u < converters.length) {
+            if (u == untyped.length || (t < typed.length && typed[t].compareTo(untyped[u]) < 0)) {
+                converters[t + u] = typed[t++].converter;
+            } else {
+                converters[t + u] = untyped[u++].converter;
+            }
+        }
+        return converters;
+    }
+
+    /**
+     * The generation of the registry, incremented on each change.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    ConcurrentMap<DefaultConverter.Key, Conversion> getSharedConversions() {
+        return sharedConversions;
+    }
+
+    ValueCache getValueCache() {
+        return values;
+    }
+
+    /**
+     * Change the maximum number of cached converted values.
+     *
+     * @param size the maximum number of values, zero to disable the cache
+     */
+    public void setValueCacheSize(int size) {
+        values.setSize(size);
+    }
+
+    /**
+     * Drop the converted values which belong to a bundle being refreshed
+     * or uninstalled, so that its class loader can be collected.
+     *
+     * @param bundle the bundle
+     */
+    public void evict(Bundle bundle) {
+        values.evict(bundle);
+    }
+
+    private void rebuild() {
+        Map<String, List<Entry>> typed = new HashMap<String, List<Entry>>();
+        List<Entry> untyped = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            if (entry.types == null) {
+                untyped.add(entry);
+            } else {
+                for (String type : entry.types) {
+                    List<Entry> list = typed.get(type);
+                    if (list == null) {
+                        list = new ArrayList<Entry>();
+                        typed.put(type, list);
+                    }
+                    list.add(entry);
+                }
+            }
+        }
+        Map<String, Entry[]> index = new HashMap<String, Entry[]>();
+        for (Map.Entry<String, List<Entry>> e : typed.entrySet()) {
+            index.put(e.getKey(), e.getValue().toArray(new Entry[e.getValue().size()]));
+        }
+        this.index = index;
+        this.untyped = untyped.toArray(new Entry[untyped.size()]);
+        this.generation++;
+        sharedConversions.clear();
+    }
+
+    private static class Entry implements Comparable<Entry> {
+
+        final ServiceReference reference;
+        final Converter converter;
+        final String[] types;
+        final int ranking;
+        final long id;
+
+        Entry(ServiceReference reference, Converter converter) {
+            this.reference = reference;
+            this.converter = converter;
+            Object types = reference.getProperty(Converter.TARGET_TYPES);
+            if (types instanceof String) {
+                this.types = ((String) types).trim().split("\\s*,\\s*");
+            } else if (types instanceof String[]) {
+                this.types = (String[]) types;
+            } else {
+                this.types = null;
+            }
+            Object ranking = reference.getProperty(Constants.SERVICE_RANKING);
+            this.ranking = ranking instanceof Integer ? (Integer) ranking : 0;
+            Object id = reference.getProperty(Constants.SERVICE_ID);
+            this.id = id instanceof Long ? (Long) id : 0;
+        }
+
+        public int compareTo(Entry o) {
+            // highest ranking first, then lowest service id
+            if (ranking != o.ranking) {
+                return ranking > o.ranking ? -1 : 1;
+            }
+            return id < o.id ? -1 : id > o.id ? 1 : 0;
+        }
+    }
+
+}
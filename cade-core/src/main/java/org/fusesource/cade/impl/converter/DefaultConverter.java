@@ -18,7 +18,10 @@
  */
 package org.fusesource.cade.impl.converter;
 
+
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Dictionary;
 import java.util.Locale;
@@ -26,6 +29,7 @@ import java.util.Properties;
 import java.util.Hashtable;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.LinkedHashMap;
@@ -51,13 +55,39 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Type;
 import java.lang.reflect.InvocationTargetException;
 
-public class DefaultConverter
+import org.fusesource.cade.Binder;
+import org.fusesource.cade.Converter;
+
+/**
+ * Converts configuration values to the types declared by configuration interfaces.
+ *
+ * The conversion to use for a given source class and target type is resolved once
+ * and cached.  Conversions which only involve classes from the boot class path
+ * (strings, numbers, JDK collections...) are shared by all converters using the same
+ * {@link ConverterRegistry}, while the ones involving bundle classes are cached by
+ * this converter only, so that the cache never keeps a bundle class loader alive
+ * once its converter is released.  Both caches are discarded when the custom
+ * converters of the registry change.
+ */
+public class DefaultConverter implements Binder.TypeConverter
 {
 
-    private Object loader;
+    private final ConcurrentMap<Key, Conversion> conversions = new ConcurrentHashMap<Key, Conversion>();
+
+    private final ConverterRegistry registry;
+
+    private volatile int generation;
+
+    private final Object loader;
 
     public DefaultConverter(Object loader) {
+        this(loader, ConverterRegistry.NONE);
+    }
+
+    public DefaultConverter(Object loader, ConverterRegistry registry) {
         this.loader = loader;
+        this.registry = registry;
+        this.generation = registry.getGeneration();
     }
 
     public Object convert(Object source, Type target) throws Exception {
@@ -69,149 +99,112 @@ public class DefaultConverter
         if (fromValue == null) {
             return null;
         }
-        // If the object is an instance of the type, just return it
-        if (isAssignable(fromValue, type)) {
-            return fromValue;
-        }
-        Object value = convertWithConverters(fromValue, type);
-        if (value == null) {
-            if (fromValue instanceof Number && Number.class.isAssignableFrom(unwrap(toClass(type)))) {
-                return convertToNumber((Number) fromValue, toClass(type));
-            } else if (fromValue instanceof String) {
-                return convertFromString((String) fromValue, toClass(type), loader);
-            } else if (toClass(type).isArray() && (fromValue instanceof Collection || fromValue.getClass().isArray())) {
-                return convertToArray(fromValue, type);
-            } else if (Map.class.isAssignableFrom(toClass(type)) && (fromValue instanceof Map || fromValue instanceof Dictionary)) {
-                return convertToMap(fromValue, type);
-            } else if (Dictionary.class.isAssignableFrom(toClass(type)) && (fromValue instanceof Map || fromValue instanceof Dictionary)) {
-                return convertToDictionary(fromValue, type);
-            } else if (Collection.class.isAssignableFrom(toClass(type)) && (fromValue instanceof Collection || fromValue.getClass().isArray())) {
-                return convertToCollection(fromValue, type);
-            } else {
-                throw new Exception("Unable to convert value " + fromValue + " to type " + type);
+        return getConversion(fromValue.getClass(), type).convert(this, fromValue);
+    }
+
+    /**
+     * Retrieve the conversion for the given source class and target type,
+     * resolving it if needed.
+     */
+    Conversion getConversion(Class sourceClass, ReifiedType type) {
+        int gen = registry.getGeneration();
+        if (gen != generation) {
+            conversions.clear();
+            generation = gen;
+        }
+        Key key = new Key(sourceClass, type);
+        ConcurrentMap<Key, Conversion> sharedConversions = registry.getSharedConversions();
+        Conversion conversion = sharedConversions.get(key);
+        if (conversion == null) {
+            conversion = conversions.get(key);
+        }
+        if (conversion == null) {
+            boolean shared = isBootClass(sourceClass) && isBootType(type);
+            conversion = resolve(sourceClass, type, shared);
+            ConcurrentMap<Key, Conversion> cache = shared ? sharedConversions : conversions;
+            Conversion oldConversion = cache.putIfAbsent(key, conversion);
+            if (oldConversion != null) {
+                conversion = oldConversion;
+            } else if (registry.getGeneration() != gen) {
+                // converters changed while resolving, do not keep a stale conversion
+                cache.remove(key, conversion);
             }
         }
-        return value;
+        return conversion;
     }
 
-    private Object convertWithConverters(Object source, ReifiedType type) throws Exception {
-        Object value = null;
-//        for (Converter converter : converters) {
-//            if (converter.canConvert(source, type)) {
-//                value = converter.convert(source, type);
-//                if (value != null) {
-//                    return value;
-//                }
-//            }
-//        }
-        return value;
+    private Conversion resolve(Class sourceClass, ReifiedType type, boolean shared) {
+        Class toClass = toClass(type);
+        if (sourceClass == Tokenizer.Tokens.class) {
+            // tokens stream into arrays and collections, other targets get them as a String[]
+            if ((toClass.isArray() || Collection.class.isAssignableFrom(toClass))
+                    && registry.getConverters(unwrap(toClass)).length == 0) {
+                return toClass.isArray() ? arrayConversion(type, shared) : new CollectionConversion(type, shared);
+            }
+            return new TokensConversion(type);
+        }
+        // If the object is an instance of the type, just return it
+        if (type.size() == 0 && unwrap(toClass).isAssignableFrom(unwrap(sourceClass))) {
+            return IDENTITY;
+        }
+        Conversion conversion = resolveBuiltin(sourceClass, type, shared);
+        Converter[] converters = registry.getConverters(unwrap(toClass));
+        if (converters.length > 0) {
+            Type target = type instanceof GenericType ? ((GenericType) type).getType() : toClass;
+            conversion = new ConverterConversion(converters, target, conversion);
+        }
+        return conversion;
     }
 
-    public Object convertToNumber(Number value, Class toType) throws Exception {
-        toType = unwrap(toType);
-        if (AtomicInteger.class == toType) {
-            return new AtomicInteger((Integer) convertToNumber(value, Integer.class));
-        } else if (AtomicLong.class == toType) {
-            return new AtomicLong((Long) convertToNumber(value, Long.class));
-        } else if (Integer.class == toType) {
-            return value.intValue();
-        } else if (Short.class == toType) {
-            return value.shortValue();
-        } else if (Long.class == toType) {
-            return value.longValue();
-        } else if (Float.class == toType) {
-            return value.floatValue();
-        } else if (Double.class == toType) {
-            return value.doubleValue();
-        } else if (Byte.class == toType) {
-            return value.byteValue();
-        } else if (BigInteger.class == toType) {
-            return new BigInteger(value.toString());
-        } else if (BigDecimal.class == toType) {
-            return new BigDecimal(value.toString());
+    private Conversion resolveBuiltin(Class sourceClass, ReifiedType type, boolean shared) {
+        Class toClass = toClass(type);
+        if (Number.class.isAssignableFrom(sourceClass) && Number.class.isAssignableFrom(unwrap(toClass))) {
+            return new NumberConversion(toClass);
+        } else if (sourceClass == String.class) {
+            return new StringConversion(toClass);
+        } else if (toClass.isArray() && (Collection.class.isAssignableFrom(sourceClass) || sourceClass.isArray())) {
+            return arrayConversion(type, shared);
+        } else if (Map.class.isAssignableFrom(toClass) && (Map.class.isAssignableFrom(sourceClass) || Dictionary.class.isAssignableFrom(sourceClass))) {
+            return new MapConversion(type, shared);
+        } else if (Dictionary.class.isAssignableFrom(toClass) && (Map.class.isAssignableFrom(sourceClass) || Dictionary.class.isAssignableFrom(sourceClass))) {
+            return new DictionaryConversion(type, shared);
+        } else if (Collection.class.isAssignableFrom(toClass) && (Collection.class.isAssignableFrom(sourceClass) || sourceClass.isArray())) {
+            return new CollectionConversion(type, shared);
         } else {
-            throw new Exception("Unable to convert number " + value + " to " + toType);
+            return new FailedConversion(type);
         }
     }
 
-    public Object convertFromString(String value, Class toType, Object loader) throws Exception {
-        toType = unwrap(toType);
-        if (ReifiedType.class == toType) {
-            try {
-                return GenericType.parse(value, loader);
-            } catch (ClassNotFoundException e) {
-                throw new Exception("Unable to convert", e);
-            }
-        } else if (Class.class == toType) {
-            try {
-                return GenericType.parse(value, loader).getRawClass();
-            } catch (ClassNotFoundException e) {
-                throw new Exception("Unable to convert", e);
-            }
-        } else if (Locale.class == toType) {
-            String[] tokens = value.split("_");
-            if (tokens.length == 1) {
-                return new Locale(tokens[0]);
-            } else if (tokens.length == 2) {
-                return new Locale(tokens[0], tokens[1]);
-            } else if (tokens.length == 3) {
-                return new Locale(tokens[0], tokens[1], tokens[2]);
-            } else {
-                throw new Exception("Invalid locale string:" + value);
-            }
-        } else if (Pattern.class == toType) {
-            return Pattern.compile(value);
-        } else if (Properties.class == toType) {
-            Properties props = new Properties();
-            ByteArrayInputStream in = new ByteArrayInputStream(value.getBytes("UTF8"));
-            props.load(in);
-            return props;
-        } else if (Boolean.class == toType) {
-            if ("yes".equalsIgnoreCase(value) || "true".equalsIgnoreCase(value) || "on".equalsIgnoreCase(value)) {
-                return Boolean.TRUE;
-            } else if ("no".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value) || "off".equalsIgnoreCase(value)) {
-                return Boolean.FALSE;
-            } else {
-                throw new RuntimeException("Invalid boolean value: " + value);
-            }
-        } else if (Integer.class == toType) {
-            return Integer.valueOf(value);
-        } else if (Short.class == toType) {
-            return Short.valueOf(value);
-        } else if (Long.class == toType) {
-            return Long.valueOf(value);
-        } else if (Float.class == toType) {
-            return Float.valueOf(value);
-        } else if (Double.class == toType) {
-            return Double.valueOf(value);
-        } else if (Character.class == toType) {
-            if (value.length() == 6 && value.startsWith("\\u")) {
-                int code = Integer.parseInt(value.substring(2), 16);
-                return (char)code;
-            } else if (value.length() == 1) {
-                return value.charAt(0);
-            } else {
-                throw new Exception("Invalid value for character type: " + value);
-            }
-        } else if (Byte.class == toType) {
-            return Byte.valueOf(value);
-        } else if (Enum.class.isAssignableFrom(toType)) {
-            return Enum.valueOf((Class<Enum>) toType, value);
-        } else {
-            return createObject(value, toType);
+    /**
+     * Numeric primitive arrays are filled without boxing, unless custom converters
+     * are registered for the wrapper of their component type.
+     */
+    private Conversion arrayConversion(ReifiedType type, boolean shared) {
+        Class componentClass = toClass(type).getComponentType();
+        if (componentClass != null && PrimitiveArrayConversion.isSupported(componentClass)
+                && registry.getConverters(unwrap(componentClass)).length == 0) {
+            return new PrimitiveArrayConversion(type, shared);
         }
+        return new ArrayConversion(type, shared);
     }
 
-    private static Object createObject(String value, Class type) throws Exception {
-        if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
-            throw new Exception("Unable to convert value " + value + " to type " + type + ". Type " + type + " is an interface or an abstract class");
-        }
-        Constructor constructor = null;
+    public Object convertToNumber(Number value, Class toType) throws Exception {
+        return new NumberConversion(toType).convert(this, value);
+    }
+
+    public Object convertFromString(String value, Class toType, Object loader) throws Exception {
+        return new StringConversion(toType).convert(value, loader, registry.getValueCache());
+    }
+
+    private static Constructor getStringConstructor(Class type) {
         try {
-            constructor = type.getConstructor(String.class);
+            return type.getConstructor(String.class);
         } catch (NoSuchMethodException e) {
-            throw new RuntimeException("Unable to convert to " + type);
+            return null;
         }
+    }
+
+    private static Object createObject(String value, Constructor constructor) throws Exception {
         try {
             return constructor.newInstance(value);
         } catch (Exception e) {
@@ -226,105 +219,6 @@ public class DefaultConverter
         return t;
     }
 
-    private Object convertToCollection(Object obj, ReifiedType type) throws Exception {
-        ReifiedType valueType = type.getActualTypeArgument(0);
-        Collection newCol = (Collection) getCollection(toClass(type)).newInstance();
-        if (obj.getClass().isArray()) {
-            for (int i = 0; i < Array.getLength(obj); i++) {
-                try {
-                    newCol.add(convert(Array.get(obj, i), valueType));
-                } catch (Exception t) {
-                    throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting array element)", t);
-                }
-            }
-        } else {
-            for (Object item : (Collection) obj) {
-                try {
-                    newCol.add(convert(item, valueType));
-                } catch (Exception t) {
-                    throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting collection entry)", t);
-                }
-            }
-        }
-        return newCol;
-    }
-
-    private Object convertToDictionary(Object obj, ReifiedType type) throws Exception {
-        ReifiedType keyType = type.getActualTypeArgument(0);
-        ReifiedType valueType = type.getActualTypeArgument(1);
-        Dictionary newDic = new Hashtable();
-        if (obj instanceof Dictionary) {
-            Dictionary dic = (Dictionary) obj;
-            for (Enumeration keyEnum = dic.keys(); keyEnum.hasMoreElements();) {
-                Object key = keyEnum.nextElement();
-                try {
-                    newDic.put(convert(key, keyType), convert(dic.get(key), valueType));
-                } catch (Exception t) {
-                    throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting map entry)", t);
-                }
-            }
-        } else {
-            for (Map.Entry e : ((Map<Object,Object>) obj).entrySet()) {
-                try {
-                    newDic.put(convert(e.getKey(), keyType), convert(e.getValue(), valueType));
-                } catch (Exception t) {
-                    throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting map entry)", t);
-                }
-            }
-        }
-        return newDic;
-    }
-
-    private Object convertToMap(Object obj, ReifiedType type) throws Exception {
-        ReifiedType keyType = type.getActualTypeArgument(0);
-        ReifiedType valueType = type.getActualTypeArgument(1);
-        Map newMap = (Map) getMap(toClass(type)).newInstance();
-        if (obj instanceof Dictionary) {
-            Dictionary dic = (Dictionary) obj;
-            for (Enumeration keyEnum = dic.keys(); keyEnum.hasMoreElements();) {
-                Object key = keyEnum.nextElement();
-                try {
-                    newMap.put(convert(key, keyType), convert(dic.get(key), valueType));
-                } catch (Exception t) {
-                    throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting map entry)", t);
-                }
-            }
-        } else {
-            for (Map.Entry e : ((Map<Object,Object>) obj).entrySet()) {
-                try {
-                    newMap.put(convert(e.getKey(), keyType), convert(e.getValue(), valueType));
-                } catch (Exception t) {
-                    throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting map entry)", t);
-                }
-            }
-        }
-        return newMap;
-    }
-
-    private Object convertToArray(Object obj, ReifiedType type) throws Exception {
-        if (obj instanceof Collection) {
-            obj = ((Collection) obj).toArray();
-        }
-        if (!obj.getClass().isArray()) {
-            throw new Exception("Unable to convert from " + obj + " to " + type);
-        }
-        ReifiedType componentType;
-        if (type.size() > 0) {
-            componentType = type.getActualTypeArgument(0);
-        } else {
-            componentType = new GenericType(type.getRawClass().getComponentType());
-        }
-        Object array = Array.newInstance(toClass(componentType), Array.getLength(obj));
-        for (int i = 0; i < Array.getLength(obj); i++) {
-            try {
-                Array.set(array, i, convert(Array.get(obj, i), componentType));
-            } catch (Exception t) {
-                throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting array element)", t);
-            }
-        }
-        return array;
-    }
-
     public static boolean isAssignable(Object source, ReifiedType target) {
         return source == null
                 || (target.size() == 0
@@ -364,6 +258,13 @@ public class DefaultConverter
         }
     }
 
+    /**
+     * The initial capacity of a hash based container holding the given number of entries.
+     */
+    private static int capacity(int size) {
+        return Math.max(size + size / 3 + 1, 16);
+    }
+
     private static boolean hasDefaultConstructor(Class type) {
         if (!Modifier.isPublic(type.getModifiers())) {
             return false;
@@ -381,6 +282,22 @@ public class DefaultConverter
         return false;
     }
 
+    private static boolean isBootClass(Class clazz) {
+        return clazz.getClassLoader() == null;
+    }
+
+    private static boolean isBootType(ReifiedType type) {
+        if (!isBootClass(type.getRawClass())) {
+            return false;
+        }
+        for (int i = 0; i < type.size(); i++) {
+            if (!isBootType(type.getActualTypeArgument(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static final Map<Class, Class> primitives;
     static {
         primitives = new HashMap<Class, Class>();
@@ -394,8 +311,916 @@ public class DefaultConverter
         primitives.put(boolean.class, Boolean.class);
     }
 
-    private Class toClass(ReifiedType type) {
+    private static Class toClass(ReifiedType type) {
         return type.getRawClass();
     }
 
+    /**
+     * The key of the conversion caches.
+     */
+    static final class Key {
+
+        private final Class sourceClass;
+        private final ReifiedType type;
+        private final int hash;
+
+        Key(Class sourceClass, ReifiedType type) {
+            this.sourceClass = sourceClass;
+            this.type = type;
+            this.hash = 31 * sourceClass.hashCode() + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return sourceClass == key.sourceClass && type.equals(key.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Converts the elements of a container to a given type.
+     * The conversion of the last element class is remembered, so that
+     * homogeneous containers only resolve it once.
+     */
+    private static final class ElementConversion {
+
+        private final ReifiedType type;
+        private final boolean shared;
+        private volatile Resolved last;
+
+        ElementConversion(ReifiedType type, boolean shared) {
+            this.type = type;
+            this.shared = shared;
+        }
+
+        Object convert(DefaultConverter converter, Object value) throws Exception {
+            if (value == null) {
+                return null;
+            }
+            Class clazz = value.getClass();
+            Resolved resolved = last;
+            if (resolved == null || resolved.sourceClass != clazz) {
+                resolved = new Resolved(clazz, converter.getConversion(clazz, type));
+                // shared conversions must not retain classes from bundles
+                if (!shared || isBootClass(clazz)) {
+                    last = resolved;
+                }
+            }
+            return resolved.conversion.convert(converter, value);
+        }
+
+        private static final class Resolved {
+
+            final Class sourceClass;
+            final Conversion conversion;
+
+            Resolved(Class sourceClass, Conversion conversion) {
+                this.sourceClass = sourceClass;
+                this.conversion = conversion;
+            }
+        }
+    }
+
+    private static final Conversion IDENTITY = new Conversion() {
+        public Object convert(DefaultConverter converter, Object value) {
+            return value;
+        }
+    };
+
+    /**
+     * Tries the custom converters registered for the target class, in order,
+     * before the built-in conversion.  As this conversion is bound to a source
+     * class, the first converter accepting it is remembered so that the others
+     * are not asked again for each value.
+     */
+    private static final class ConverterConversion implements Conversion {
+
+        private static final int UNKNOWN = -1;
+
+        private final Converter[] converters;
+        private final Type type;
+        private final Conversion fallback;
+        private volatile int accepting = UNKNOWN;
+
+        ConverterConversion(Converter[] converters, Type type, Conversion fallback) {
+            this.converters = converters;
+            this.type = type;
+            this.fallback = fallback;
+        }
+
+        public Object convert(DefaultConverter converter, Object value) throws Exception {
+            int first = accepting;
+            if (first == UNKNOWN) {
+                first = converters.length;
+                for (int i = 0; i < converters.length; i++) {
+                    if (converters[i].canConvert(value, type)) {
+                        first = i;
+                        break;
+                    }
+                }
+                accepting = first;
+            }
+            if (first < converters.length) {
+                Object result = converters[first].convert(value, type);
+                if (result != null) {
+                    return result;
+                }
+                // let the next converters try
+                for (int i = first + 1; i < converters.length; i++) {
+                    if (converters[i].canConvert(value, type)) {
+                        result = converters[i].convert(value, type);
+                        if (result != null) {
+                            return result;
+                        }
+                    }
+                }
+            }
+            return fallback.convert(converter, value);
+        }
+    }
+
+    private static final class TokensConversion implements Conversion {
+
+        private final ReifiedType type;
+
+        TokensConversion(ReifiedType type) {
+            this.type = type;
+        }
+
+        public Object convert(DefaultConverter converter, Object value) throws Exception {
+            return converter.convert(((Tokenizer.Tokens) value).toArray(), type);
+        }
+    }
+
+    private static final class FailedConversion implements Conversion {
+
+        private final ReifiedType type;
+
+        FailedConversion(ReifiedType type) {
+            this.type = type;
+        }
+
+        public Object convert(DefaultConverter converter, Object value) throws Exception {
+            throw new Exception("Unable to convert value " + value + " to type " + type);
+        }
+    }
+
+    private static final class NumberConversion implements Conversion {
+
+        private static final int ATOMIC_INTEGER = 0;
+        private static final int ATOMIC_LONG = 1;
+        private static final int INTEGER = 2;
+        private static final int SHORT = 3;
+        private static final int LONG = 4;
+        private static final int FLOAT = 5;
+        private static final int DOUBLE = 6;
+        private static final int BYTE = 7;
+        private static final int BIG_INTEGER = 8;
+        private static final int BIG_DECIMAL = 9;
+        private static final int UNSUPPORTED = -1;
+
+        private final Class toType;
+        private final int kind;
+
+        NumberConversion(Class toType) {
+            this.toType = unwrap(toType);
+            if (AtomicInteger.class == this.toType) {
+                kind = ATOMIC_INTEGER;
+            } else if (AtomicLong.class == this.toType) {
+                kind = ATOMIC_LONG;
+            } else if (Integer.class == this.toType) {
+                kind = INTEGER;
+            } else if (Short.class == this.toType) {
+                kind = SHORT;
+            } else if (Long.class == this.toType) {
+                kind = LONG;
+            } else if (Float.class == this.toType) {
+                kind = FLOAT;
+            } else if (Double.class == this.toType) {
+                kind = DOUBLE;
+            } else if (Byte.class == this.toType) {
+                kind = BYTE;
+            } else if (BigInteger.class == this.toType) {
+                kind = BIG_INTEGER;
+            } else if (BigDecimal.class == this.toType) {
+                kind = BIG_DECIMAL;
+            } else {
+                kind = UNSUPPORTED;
+            }
+        }
+
+        public Object convert(DefaultConverter converter, Object obj) throws Exception {
+            Number value = (Number) obj;
+            switch (kind) {
+                case ATOMIC_INTEGER: return new AtomicInteger(value.intValue());
+                case ATOMIC_LONG:    return new AtomicLong(value.longValue());
+                case INTEGER:        return value.intValue();
+                case SHORT:          return value.shortValue();
+                case LONG:           return value.longValue();
+                case FLOAT:          return value.floatValue();
+                case DOUBLE:         return value.doubleValue();
+                case BYTE:           return value.byteValue();
+                case BIG_INTEGER:    return new BigInteger(value.toString());
+                case BIG_DECIMAL:    return new BigDecimal(value.toString());
+                default:
+                    throw new Exception("Unable to convert number " + value + " to " + toType);
+            }
+        }
+    }
+
+    private static final class StringConversion implements Conversion {
+
+        private static final int REIFIED_TYPE = 0;
+        private static final int CLASS = 1;
+        private static final int LOCALE = 2;
+        private static final int PATTERN = 3;
+        private static final int PROPERTIES = 4;
+        private static final int BOOLEAN = 5;
+        private static final int INTEGER = 6;
+        private static final int SHORT = 7;
+        private static final int LONG = 8;
+        private static final int FLOAT = 9;
+        private static final int DOUBLE = 10;
+        private static final int CHARACTER = 11;
+        private static final int BYTE = 12;
+        private static final int ENUM = 13;
+        private static final int CONSTRUCTOR = 14;
+        private static final int ABSTRACT = 15;
+        private static final int NO_CONSTRUCTOR = 16;
+
+        private final Class toType;
+        private final int kind;
+        private final Constructor constructor;
+
+        StringConversion(Class toType) {
+            this.toType = unwrap(toType);
+            Constructor constructor = null;
+            if (ReifiedType.class == this.toType) {
+                kind = REIFIED_TYPE;
+            } else if (Class.class == this.toType) {
+                kind = CLASS;
+            } else if (Locale.class == this.toType) {
+                kind = LOCALE;
+            } else if (Pattern.class == this.toType) {
+                kind = PATTERN;
+            } else if (Properties.class == this.toType) {
+                kind = PROPERTIES;
+            } else if (Boolean.class == this.toType) {
+                kind = BOOLEAN;
+            } else if (Integer.class == this.toType) {
+                kind = INTEGER;
+            } else if (Short.class == this.toType) {
+                kind = SHORT;
+            } else if (Long.class == this.toType) {
+                kind = LONG;
+            } else if (Float.class == this.toType) {
+                kind = FLOAT;
+            } else if (Double.class == this.toType) {
+                kind = DOUBLE;
+            } else if (Character.class == this.toType) {
+                kind = CHARACTER;
+            } else if (Byte.class == this.toType) {
+                kind = BYTE;
+            } else if (Enum.class.isAssignableFrom(this.toType)) {
+                kind = ENUM;
+            } else if (this.toType.isInterface() || Modifier.isAbstract(this.toType.getModifiers())) {
+                kind = ABSTRACT;
+            } else {
+                constructor = getStringConstructor(this.toType);
+                kind = constructor != null ? CONSTRUCTOR : NO_CONSTRUCTOR;
+            }
+            this.constructor = constructor;
+        }
+
+        public Object convert(DefaultConverter converter, Object value) throws Exception {
+            return convert((String) value, converter.loader, converter.registry.getValueCache());
+        }
+
+        Object convert(String value, Object loader, ValueCache cache) throws Exception {
+            // the first kinds are expensive to build and immutable, except properties which are copied
+            if (kind > PROPERTIES) {
+                return convert(value, loader);
+            }
+            Object cacheLoader = kind == REIFIED_TYPE || kind == CLASS ? loader : null;
+            Object result = cache.get(value, toType, cacheLoader);
+            if (result == null) {
+                result = convert(value, loader);
+                cache.put(value, toType, cacheLoader, result);
+            }
+            return kind == PROPERTIES ? ((Properties) result).clone() : result;
+        }
+
+        private Object convert(String value, Object loader) throws Exception {
+            switch (kind) {
+                case REIFIED_TYPE:
+                    try {
+                        return GenericType.parse(value, loader);
+                    } catch (ClassNotFoundException e) {
+                        throw new Exception("Unable to convert", e);
+                    }
+                case CLASS:
+                    try {
+                        return GenericType.parse(value, loader).getRawClass();
+                    } catch (ClassNotFoundException e) {
+                        throw new Exception("Unable to convert", e);
+                    }
+                case LOCALE:
+                    String[] tokens = value.split("_");
+                    if (tokens.length == 1) {
+                        return new Locale(tokens[0]);
+                    } else if (tokens.length == 2) {
+                        return new Locale(tokens[0], tokens[1]);
+                    } else if (tokens.length == 3) {
+                        return new Locale(tokens[0], tokens[1], tokens[2]);
+                    } else {
+                        throw new Exception("Invalid locale string:" + value);
+                    }
+                case PATTERN:
+                    return Pattern.compile(value);
+                case PROPERTIES:
+                    Properties props = new Properties();
+                    ByteArrayInputStream in = new ByteArrayInputStream(value.getBytes("UTF8"));
+                    props.load(in);
+                    return props;
+                case BOOLEAN:
+                    if ("yes".equalsIgnoreCase(value) || "true".equalsIgnoreCase(value) || "on".equalsIgnoreCase(value)) {
+                        return Boolean.TRUE;
+                    } else if ("no".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value) || "off".equalsIgnoreCase(value)) {
+                        return Boolean.FALSE;
+                    } else {
+                        throw new RuntimeException("Invalid boolean value: " + value);
+                    }
+                case INTEGER:
+                    return Integer.valueOf(value);
+                case SHORT:
+                    return Short.valueOf(value);
+                case LONG:
+                    return Long.valueOf(value);
+                case FLOAT:
+                    return Float.valueOf(value);
+                case DOUBLE:
+                    return Double.valueOf(value);
+                case CHARACTER:
+                    if (value.length() == 6 && value.startsWith("\\u")) {
+                        int code = Integer.parseInt(value.substring(2), 16);
+                        return (char)code;
+                    } else if (value.length() == 1) {
+                        return value.charAt(0);
+                    } else {
+                        throw new Exception("Invalid value for character type: " + value);
+                    }
+                case BYTE:
+                    return Byte.valueOf(value);
+                case ENUM:
+                    return Enum.valueOf((Class<Enum>) toType, value);
+                case CONSTRUCTOR:
+                    return createObject(value, constructor);
+                case ABSTRACT:
+                    throw new Exception("Unable to convert value " + value + " to type " + toType + ". Type " + toType + " is an interface or an abstract class");
+                default:
+                    throw new RuntimeException("Unable to convert to " + toType);
+            }
+        }
+    }
+
+    private static final class CollectionConversion implements Conversion {
+
+        private static final int LIST = 0;
+        private static final int SET = 1;
+        private static final int SORTED_SET = 2;
+        private static final int ARRAY_LIST = 3;
+        private static final int LINKED_HASH_SET = 4;
+        private static final int HASH_SET = 5;
+        private static final int TREE_SET = 6;
+        private static final int LINKED_LIST = 7;
+        private static final int CONSTRUCTOR = 8;
+
+        private final ReifiedType type;
+        private final int kind;
+        private final Constructor constructor;
+        private final ElementConversion values;
+
+        CollectionConversion(ReifiedType type, boolean shared) {
+            this.type = type;
+            Class toClass = toClass(type);
+            Class collectionClass = getCollection(toClass);
+            Constructor constructor = null;
+            // results declared with an interface can not be modified, and are shared as is
+            if (toClass == List.class || toClass == Collection.class) {
+                kind = LIST;
+            } else if (toClass == Set.class) {
+                kind = SET;
+            } else if (toClass == SortedSet.class) {
+                kind = SORTED_SET;
+            } else if (collectionClass == ArrayList.class) {
+                kind = ARRAY_LIST;
+            } else if (collectionClass == LinkedHashSet.class) {
+                kind = LINKED_HASH_SET;
+            } else if (collectionClass == HashSet.class) {
+                kind = HASH_SET;
+            } else if (collectionClass == TreeSet.class) {
+                kind = TREE_SET;
+            } else if (collectionClass == LinkedList.class) {
+                kind = LINKED_LIST;
+            } else {
+                kind = CONSTRUCTOR;
+                try {
+                    constructor = collectionClass.getConstructor();
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            this.constructor = constructor;
+            this.values = new ElementConversion(type.getActualTypeArgument(0), shared);
+        }
+
+        public Object convert(DefaultConverter converter, Object obj) throws Exception {
+            if (kind == LIST) {
+                // the elements are copied straight into an array of the right size
+                Object[] elements;
+                if (obj.getClass().isArray()) {
+                    elements = new Object[Array.getLength(obj)];
+                    for (int i = 0; i < elements.length; i++) {
+                        try {
+                            elements[i] = values.convert(converter, Array.get(obj, i));
+                        } catch (Exception t) {
+                            throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting array element)", t);
+                        }
+                    }
+                } else {
+                    Collection col = (Collection) obj;
+                    elements = new Object[col.size()];
+                    int i = 0;
+                    for (Object item : col) {
+                        try {
+                            elements[i++] = values.convert(converter, item);
+                        } catch (Exception t) {
+                            throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting collection entry)", t);
+                        }
+                    }
+                }
+                return Collections.unmodifiableList(Arrays.asList(elements));
+            }
+            boolean array = obj.getClass().isArray();
+            Collection newCol = newCollection(array ? Array.getLength(obj) : ((Collection) obj).size());
+            if (array) {
+                for (int i = 0; i < Array.getLength(obj); i++) {
+                    try {
+                        newCol.add(values.convert(converter, Array.get(obj, i)));
+                    } catch (Exception t) {
+                        throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting array element)", t);
+                    }
+                }
+            } else {
+                for (Object item : (Collection) obj) {
+                    try {
+                        newCol.add(values.convert(converter, item));
+                    } catch (Exception t) {
+                        throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting collection entry)", t);
+                    }
+                }
+            }
+            switch (kind) {
+                case SET:        return Collections.unmodifiableSet((Set) newCol);
+                case SORTED_SET: return Collections.unmodifiableSortedSet((SortedSet) newCol);
+                default:         return newCol;
+            }
+        }
+
+        private Collection newCollection(int size) throws Exception {
+            switch (kind) {
+                case ARRAY_LIST:      return new ArrayList(size);
+                case SET:
+                case LINKED_HASH_SET: return new LinkedHashSet(capacity(size));
+                case HASH_SET:        return new HashSet(capacity(size));
+                case SORTED_SET:
+                case TREE_SET:        return new TreeSet();
+                case LINKED_LIST:     return new LinkedList();
+                default:              return (Collection) constructor.newInstance();
+            }
+        }
+    }
+
+    private static final class DictionaryConversion implements Conversion {
+
+        private final ReifiedType type;
+        private final ElementConversion keys;
+        private final ElementConversion values;
+
+        DictionaryConversion(ReifiedType type, boolean shared) {
+            this.type = type;
+            this.keys = new ElementConversion(type.getActualTypeArgument(0), shared);
+            this.values = new ElementConversion(type.getActualTypeArgument(1), shared);
+        }
+
+        public Object convert(DefaultConverter converter, Object obj) throws Exception {
+            Dictionary newDic = new Hashtable(capacity(obj instanceof Dictionary ? ((Dictionary) obj).size() : ((Map) obj).size()));
+            if (obj instanceof Dictionary) {
+                Dictionary dic = (Dictionary) obj;
+                for (Enumeration keyEnum = dic.keys(); keyEnum.hasMoreElements();) {
+                    Object key = keyEnum.nextElement();
+                    try {
+                        newDic.put(keys.convert(converter, key), values.convert(converter, dic.get(key)));
+                    } catch (Exception t) {
+                        throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting map entry)", t);
+                    }
+                }
+            } else {
+                for (Map.Entry e : ((Map<Object,Object>) obj).entrySet()) {
+                    try {
+                        newDic.put(keys.convert(converter, e.getKey()), values.convert(converter, e.getValue()));
+                    } catch (Exception t) {
+                        throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting map entry)", t);
+                    }
+                }
+            }
+            return newDic;
+        }
+    }
+
+    private static final class MapConversion implements Conversion {
+
+        private static final int MAP = 0;
+        private static final int SORTED_MAP = 1;
+        private static final int LINKED_HASH_MAP = 2;
+        private static final int HASH_MAP = 3;
+        private static final int TREE_MAP = 4;
+        private static final int CONCURRENT_HASH_MAP = 5;
+        private static final int CONSTRUCTOR = 6;
+
+        private final ReifiedType type;
+        private final int kind;
+        private final Constructor constructor;
+        private final ElementConversion keys;
+        private final ElementConversion values;
+
+        MapConversion(ReifiedType type, boolean shared) {
+            this.type = type;
+            Class toClass = toClass(type);
+            Class mapClass = getMap(toClass);
+            Constructor constructor = null;
+            // results declared with an interface can not be modified, and are shared as is
+            if (toClass == Map.class) {
+                kind = MAP;
+            } else if (toClass == SortedMap.class) {
+                kind = SORTED_MAP;
+            } else if (mapClass == LinkedHashMap.class) {
+                kind = LINKED_HASH_MAP;
+            } else if (mapClass == HashMap.class) {
+                kind = HASH_MAP;
+            } else if (mapClass == TreeMap.class) {
+                kind = TREE_MAP;
+            } else if (mapClass == ConcurrentHashMap.class) {
+                kind = CONCURRENT_HASH_MAP;
+            } else {
+                kind = CONSTRUCTOR;
+                try {
+                    constructor = mapClass.getConstructor();
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            this.constructor = constructor;
+            this.keys = new ElementConversion(type.getActualTypeArgument(0), shared);
+            this.values = new ElementConversion(type.getActualTypeArgument(1), shared);
+        }
+
+        public Object convert(DefaultConverter converter, Object obj) throws Exception {
+            Map newMap = newMap(obj instanceof Dictionary ? ((Dictionary) obj).size() : ((Map) obj).size());
+            if (obj instanceof Dictionary) {
+                Dictionary dic = (Dictionary) obj;
+                for (Enumeration keyEnum = dic.keys(); keyEnum.hasMoreElements();) {
+                    Object key = keyEnum.nextElement();
+                    try {
+                        newMap.put(keys.convert(converter, key), values.convert(converter, dic.get(key)));
+                    } catch (Exception t) {
+                        throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting map entry)", t);
+                    }
+                }
+            } else {
+                for (Map.Entry e : ((Map<Object,Object>) obj).entrySet()) {
+                    try {
+                        newMap.put(keys.convert(converter, e.getKey()), values.convert(converter, e.getValue()));
+                    } catch (Exception t) {
+                        throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting map entry)", t);
+                    }
+                }
+            }
+            switch (kind) {
+                case MAP:        return Collections.unmodifiableMap(newMap);
+                case SORTED_MAP: return Collections.unmodifiableSortedMap((SortedMap) newMap);
+                default:         return newMap;
+            }
+        }
+
+        private Map newMap(int size) throws Exception {
+            switch (kind) {
+                case MAP:
+                case LINKED_HASH_MAP:     return new LinkedHashMap(capacity(size));
+                case HASH_MAP:            return new HashMap(capacity(size));
+                case SORTED_MAP:
+                case TREE_MAP:            return new TreeMap();
+                case CONCURRENT_HASH_MAP: return new ConcurrentHashMap(capacity(size));
+                default:                  return (Map) constructor.newInstance();
+            }
+        }
+    }
+
+    private static final class ArrayConversion implements Conversion {
+
+        private final ReifiedType type;
+        private final Class componentClass;
+        private final ElementConversion values;
+
+        ArrayConversion(ReifiedType type, boolean shared) {
+            this.type = type;
+            ReifiedType componentType;
+            if (type.size() > 0) {
+                componentType = type.getActualTypeArgument(0);
+            } else {
+                componentType = new GenericType(type.getRawClass().getComponentType());
+            }
+            this.componentClass = toClass(componentType);
+            this.values = new ElementConversion(componentType, shared);
+        }
+
+        public Object convert(DefaultConverter converter, Object obj) throws Exception {
+            if (obj instanceof Collection) {
+                Collection col = (Collection) obj;
+                Object array = Array.newInstance(componentClass, col.size());
+                int i = 0;
+                for (Object item : col) {
+                    try {
+                        Array.set(array, i++, values.convert(converter, item));
+                    } catch (Exception t) {
+                        throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting collection entry)", t);
+                    }
+                }
+                return array;
+            }
+            int length = Array.getLength(obj);
+            Object array = Array.newInstance(componentClass, length);
+            for (int i = 0; i < length; i++) {
+                try {
+                    Array.set(array, i, values.convert(converter, Array.get(obj, i)));
+                } catch (Exception t) {
+                    throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting array element)", t);
+                }
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Converts arrays and collections to arrays of a numeric primitive type.
+     * Strings are parsed and numbers narrowed straight into the target array, and
+     * numeric primitive arrays are copied with a cast, without boxing any element.
+     * Other elements go through the generic element conversion.
+     */
+    private static final class PrimitiveArrayConversion implements Conversion {
+
+        private static final int INT = 0;
+        private static final int LONG = 1;
+        private static final int SHORT = 2;
+        private static final int BYTE = 3;
+        private static final int FLOAT = 4;
+        private static final int DOUBLE = 5;
+
+        private final ReifiedType type;
+        private final Class componentClass;
+        private final int kind;
+        private final ElementConversion values;
+
+        static boolean isSupported(Class componentClass) {
+            return kind(componentClass) >= 0;
+        }
+
+        private static int kind(Class componentClass) {
+            if (componentClass == int.class) {
+                return INT;
+            } else if (componentClass == long.class) {
+                return LONG;
+            } else if (componentClass == short.class) {
+                return SHORT;
+            } else if (componentClass == byte.class) {
+                return BYTE;
+            } else if (componentClass == float.class) {
+                return FLOAT;
+            } else if (componentClass == double.class) {
+                return DOUBLE;
+            } else {
+                return -1;
+            }
+        }
+
+        PrimitiveArrayConversion(ReifiedType type, boolean shared) {
+            this.type = type;
+            this.componentClass = toClass(type).getComponentType();
+            this.kind = kind(componentClass);
+            this.values = new ElementConversion(new GenericType(componentClass), shared);
+        }
+
+        public Object convert(DefaultConverter converter, Object obj) throws Exception {
+            if (obj instanceof Collection) {
+                Collection col = (Collection) obj;
+                Object array = Array.newInstance(componentClass, col.size());
+                int i = 0;
+                for (Object item : col) {
+                    try {
+                        set(converter, array, i++, item);
+                    } catch (Exception t) {
+                        throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting collection entry)", t);
+                    }
+                }
+                return array;
+            }
+            if (obj instanceof Object[]) {
+                Object[] items = (Object[]) obj;
+                Object array = Array.newInstance(componentClass, items.length);
+                for (int i = 0; i < items.length; i++) {
+                    try {
+                        set(converter, array, i, items[i]);
+                    } catch (Exception t) {
+                        throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting array element)", t);
+                    }
+                }
+                return array;
+            }
+            Object array = copy(obj);
+            if (array != null) {
+                return array;
+            }
+            // char[] or boolean[]
+            int length = Array.getLength(obj);
+            array = Array.newInstance(componentClass, length);
+            for (int i = 0; i < length; i++) {
+                try {
+                    set(converter, array, i, Array.get(obj, i));
+                } catch (Exception t) {
+                    throw new Exception("Unable to convert from " + obj + " to " + type + "(error converting array element)", t);
+                }
+            }
+            return array;
+        }
+
+        private void set(DefaultConverter converter, Object array, int i, Object item) throws Exception {
+            if (item instanceof String) {
+                String value = (String) item;
+                switch (kind) {
+                    case INT:    ((int[]) array)[i] = Integer.parseInt(value); break;
+                    case LONG:   ((long[]) array)[i] = Long.parseLong(value); break;
+                    case SHORT:  ((short[]) array)[i] = Short.parseShort(value); break;
+                    case BYTE:   ((byte[]) array)[i] = Byte.parseByte(value); break;
+                    case FLOAT:  ((float[]) array)[i] = Float.parseFloat(value); break;
+                    default:     ((double[]) array)[i] = Double.parseDouble(value); break;
+                }
+            } else if (item instanceof Number) {
+                Number value = (Number) item;
+                switch (kind) {
+                    case INT:    ((int[]) array)[i] = value.intValue(); break;
+                    case LONG:   ((long[]) array)[i] = value.longValue(); break;
+                    case SHORT:  ((short[]) array)[i] = value.shortValue(); break;
+                    case BYTE:   ((byte[]) array)[i] = value.byteValue(); break;
+                    case FLOAT:  ((float[]) array)[i] = value.floatValue(); break;
+                    default:     ((double[]) array)[i] = value.doubleValue(); break;
+                }
+            } else {
+                Array.set(array, i, values.convert(converter, item));
+            }
+        }
+
+        /**
+         * Copy a numeric primitive array with the same casts as the {@link Number} methods.
+         *
+         * @return the new array, or <code>null</code> if the source is not a numeric primitive array
+         */
+        private Object copy(Object obj) {
+            int length = Array.getLength(obj);
+            if (obj instanceof double[] || obj instanceof float[]) {
+                double[] d = obj instanceof double[] ? (double[]) obj : null;
+                float[] f = d == null ? (float[]) obj : null;
+                switch (kind) {
+                    case INT: {
+                        int[] a = new int[length];
+                        for (int i = 0; i < length; i++) {
+                            a[i] = (int) (d != null ? d[i] : f[i]);
+                        }
+                        return a;
+                    }
+                    case LONG: {
+                        long[] a = new long[length];
+                        for (int i = 0; i < length; i++) {
+                            a[i] = (long) (d != null ? d[i] : f[i]);
+                        }
+                        return a;
+                    }
+                    case SHORT: {
+                        short[] a = new short[length];
+                        for (int i = 0; i < length; i++) {
+                            a[i] = (short) (int) (d != null ? d[i] : f[i]);
+                        }
+                        return a;
+                    }
+                    case BYTE: {
+                        byte[] a = new byte[length];
+                        for (int i = 0; i < length; i++) {
+                            a[i] = (byte) (int) (d != null ? d[i] : f[i]);
+                        }
+                        return a;
+                    }
+                    case FLOAT: {
+                        float[] a = new float[length];
+                        for (int i = 0; i < length; i++) {
+                            a[i] = d != null ? (float) d[i] : f[i];
+                        }
+                        return a;
+                    }
+                    default: {
+                        double[] a = new double[length];
+                        for (int i = 0; i < length; i++) {
+                            a[i] = d != null ? d[i] : f[i];
+                        }
+                        return a;
+                    }
+                }
+            }
+            if (!(obj instanceof int[] || obj instanceof long[] || obj instanceof short[] || obj instanceof byte[])) {
+                return null;
+            }
+            if (kind == INT && obj instanceof int[]) {
+                return ((int[]) obj).clone();
+            }
+            if (kind == LONG && obj instanceof long[]) {
+                return ((long[]) obj).clone();
+            }
+            switch (kind) {
+                case INT: {
+                    int[] a = new int[length];
+                    for (int i = 0; i < length; i++) {
+                        a[i] = (int) integral(obj, i);
+                    }
+                    return a;
+                }
+                case LONG: {
+                    long[] a = new long[length];
+                    for (int i = 0; i < length; i++) {
+                        a[i] = integral(obj, i);
+                    }
+                    return a;
+                }
+                case SHORT: {
+                    short[] a = new short[length];
+                    for (int i = 0; i < length; i++) {
+                        a[i] = (short) integral(obj, i);
+                    }
+                    return a;
+                }
+                case BYTE: {
+                    byte[] a = new byte[length];
+                    for (int i = 0; i < length; i++) {
+                        a[i] = (byte) integral(obj, i);
+                    }
+                    return a;
+                }
+                case FLOAT: {
+                    float[] a = new float[length];
+                    for (int i = 0; i < length; i++) {
+                        a[i] = (float) integral(obj, i);
+                    }
+                    return a;
+                }
+                default: {
+                    double[] a = new double[length];
+                    for (int i = 0; i < length; i++) {
+                        a[i] = (double) integral(obj, i);
+                    }
+                    return a;
+                }
+            }
+        }
+
+        private static long integral(Object array, int i) {
+            if (array instanceof int[]) {
+                return ((int[]) array)[i];
+            } else if (array instanceof long[]) {
+                return ((long[]) array)[i];
+            } else if (array instanceof short[]) {
+                return ((short[]) array)[i];
+            } else {
+                return ((byte[]) array)[i];
+            }
+        }
+    }
+
 }
@@ -24,6 +24,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.lang.reflect.WildcardType;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -47,14 +48,18 @@ public class GenericType extends ReifiedType {
     }
 
     private GenericType[] parameters;
+    private Type type;
+    private int hash;
 
 	public GenericType(Type type) {
 		this(getConcreteClass(type), parametersOf(type));
+		this.type = type;
 	}
 
     public GenericType(Class clazz, GenericType... parameters) {
         super(clazz);
         this.parameters = parameters;
+        this.type = clazz;
     }
 
     public static GenericType parse(String type, Object loader) throws ClassNotFoundException, IllegalArgumentException {
@@ -92,6 +97,14 @@ public class GenericType extends ReifiedType {
         }
     }
 
+    /**
+     * The java type this generic type has been built from, or the
+     * raw class if it has not been built from a type.
+     */
+    public Type getType() {
+        return type;
+    }
+
     @Override
     public ReifiedType getActualTypeArgument(int i) {
         if (parameters.length == 0) {
@@ -105,6 +118,28 @@ public class GenericType extends ReifiedType {
         return parameters.length;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GenericType)) {
+            return false;
+        }
+        GenericType that = (GenericType) o;
+        return getRawClass() == that.getRawClass() && Arrays.equals(parameters, that.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = 31 * getRawClass().hashCode() + Arrays.hashCode(parameters);
+            hash = h;
+        }
+        return h;
+    }
+
     @Override
     public String toString() {
         Class cl = getRawClass();
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl.converter;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the values of {@link org.fusesource.cade.Meta.Separated} properties.
+ *
+ * The separator is compiled once.  Separators which are plain strings, possibly
+ * surrounded with <code>\s*</code> like the default one, are matched without
+ * any regular expression, and produce a {@link Tokens} collection which scans
+ * the value a single time and only creates the tokens while being iterated,
+ * so that they go straight into the target array or collection.  Other
+ * separators are compiled to a {@link Pattern}.
+ *
+ * In all cases, the tokens are the same as those returned by
+ * {@link String#split(String)}.
+ */
+public class Tokenizer {
+
+    private static final String SPACES = "\\s*";
+    private static final String META = "\\^$.|?*+()[]{}";
+
+    private final String literal;
+    private final boolean trim;
+    private final Pattern pattern;
+
+    public Tokenizer(String separator) {
+        String literal = literal(separator);
+        boolean trim = false;
+        if (literal == null && separator.length() > 2 * SPACES.length()
+                && separator.startsWith(SPACES) && separator.endsWith(SPACES)) {
+            literal = literal(separator.substring(SPACES.length(), separator.length() - SPACES.length()));
+            // whitespace around the literal would be eaten by the surrounding \s*
+            trim = literal != null && !isSpace(literal.charAt(0)) && !isSpace(literal.charAt(literal.length() - 1));
+            if (!trim) {
+                literal = null;
+            }
+        }
+        this.literal = literal;
+        this.trim = trim;
+        this.pattern = literal == null ? Pattern.compile(separator) : null;
+    }
+
+    /**
+     * Split the given value.
+     *
+     * @param value the value to split
+     * @return a {@link Tokens} collection, or a <code>String[]</code> if the separator is a regular expression
+     */
+    public Object split(String value) {
+        if (pattern != null) {
+            return pattern.split(value);
+        }
+        return new Tokens(value, literal, trim);
+    }
+
+    /**
+     * Get the string matched by the given regular expression if it has no
+     * special character, or is a single escaped one.
+     */
+    private static String literal(String regex) {
+        if (regex.length() == 2 && regex.charAt(0) == '\\' && !Character.isLetterOrDigit(regex.charAt(1))) {
+            return regex.substring(1);
+        }
+        if (regex.length() == 0) {
+            return null;
+        }
+        for (int i = 0; i < regex.length(); i++) {
+            if (META.indexOf(regex.charAt(i)) >= 0) {
+                return null;
+            }
+        }
+        return regex;
+    }
+
+    /**
+     * The characters matched by <code>\s</code>.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * The tokens of a value split on a literal separator.
+     * The value is scanned once, when the tokens are first needed, recording the
+     * bounds of the tokens only.  The collection can not be modified.
+     */
+    public static final class Tokens extends AbstractCollection<String> {
+
+        private final String value;
+        private final String separator;
+        private final boolean trim;
+        // start and end of each token, once scanned
+        private int[] bounds;
+        private int size = -1;
+
+        Tokens(String value, String separator, boolean trim) {
+            this.value = value;
+            this.separator = separator;
+            this.trim = trim;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            parse();
+            return new Iterator<String>() {
+                private int index;
+
+                public boolean hasNext() {
+                    return index < size;
+                }
+
+                public String next() {
+                    if (index >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return token(index++);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            parse();
+            return size;
+        }
+
+        @Override
+        public String[] toArray() {
+            parse();
+            String[] array = new String[size];
+            for (int i = 0; i < size; i++) {
+                array[i] = token(i);
+            }
+            return array;
+        }
+
+        private String token(int index) {
+            int start = bounds[2 * index];
+            int end = bounds[2 * index + 1];
+            return start == end ? "" : value.substring(start, end);
+        }
+
+        private void parse() {
+            if (size >= 0) {
+                return;
+            }
+            int[] b = new int[16];
+            int n = 0;
+            for (Cursor cursor = new Cursor(); cursor.advance(); n++) {
+                if (2 * n + 2 > b.length) {
+                    int[] nb = new int[b.length * 2];
+                    System.arraycopy(b, 0, nb, 0, b.length);
+                    b = nb;
+                }
+                b[2 * n] = cursor.start;
+                b[2 * n + 1] = cursor.end;
+            }
+            bounds = b;
+            size = n;
+        }
+
+        private class Cursor {
+
+            // position of the next token, or -1 once the value is consumed
+            private int position;
+            private boolean matched;
+            // bounds of the current token
+            private int start;
+            private int end;
+            // a non empty token found after empty ones, and the number of empty tokens left before it
+            private int heldStart = -1;
+            private int heldEnd;
+            private int empties;
+
+            /**
+             * Move to the next token, dropping the trailing empty tokens like
+             * {@link String#split(String)} does.
+             */
+            boolean advance() {
+                if (empties > 0) {
+                    empties--;
+                    start = end;
+                    return true;
+                }
+                if (heldStart >= 0) {
+                    start = heldStart;
+                    end = heldEnd;
+                    heldStart = -1;
+                    return true;
+                }
+                if (!scan()) {
+                    return false;
+                }
+                if (start < end || !matched) {
+                    // the value is returned as is when there is no separator
+                    return true;
+                }
+                int emptyEnd = end;
+                int n = 1;
+                while (scan()) {
+                    if (start < end) {
+                        heldStart = start;
+                        heldEnd = end;
+                        empties = n - 1;
+                        start = emptyEnd;
+                        end = emptyEnd;
+                        return true;
+                    }
+                    n++;
+                }
+                return false;
+            }
+
+            private boolean scan() {
+                if (position < 0) {
+                    return false;
+                }
+                int i = value.indexOf(separator, position);
+                start = position;
+                if (i < 0) {
+                    end = value.length();
+                    position = -1;
+                    return true;
+                }
+                matched = true;
+                end = i;
+                position = i + separator.length();
+                if (trim) {
+                    while (end > start && isSpace(value.charAt(end - 1))) {
+                        end--;
+                    }
+                    while (position < value.length() && isSpace(value.charAt(position))) {
+                        position++;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+
+}
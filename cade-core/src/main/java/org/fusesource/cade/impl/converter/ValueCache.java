@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl.converter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleReference;
+import org.osgi.framework.FrameworkUtil;
+
+/**
+ * A bounded cache of the values converted from strings which are expensive to
+ * build, such as patterns, classes or locales, indexed by source string, target
+ * class and class loader.
+ *
+ * The cache is split into segments, each one holding its least recently used
+ * entries up to its share of the maximum size, so that concurrent lookups
+ * of different values do not contend on a single lock.  The values must be
+ * immutable, or copied by the caller, as they are shared.
+ */
+class ValueCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private volatile int segmentSize;
+
+    ValueCache(int size) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        setSize(size);
+    }
+
+    /**
+     * Change the maximum number of entries, zero disabling the cache.
+     */
+    void setSize(int size) {
+        segmentSize = size > 0 ? (size + SEGMENTS - 1) / SEGMENTS : 0;
+        if (size <= 0) {
+            clear();
+        }
+    }
+
+    /**
+     * Get a cached value.
+     *
+     * @param value the source string
+     * @param type the target class
+     * @param loader the class loader used for the conversion, or <code>null</code> if it does not depend on it
+     * @return the cached value, or <code>null</code>
+     */
+    Object get(String value, Class type, Object loader) {
+        if (segmentSize == 0) {
+            return null;
+        }
+        Key key = new Key(value, type, loader);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    void put(String value, Class type, Object loader, Object result) {
+        if (segmentSize == 0) {
+            return;
+        }
+        Key key = new Key(value, type, loader);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, result);
+        }
+    }
+
+    /**
+     * Drop the values converted with the class loader of the given bundle,
+     * or whose class comes from it.
+     */
+    void evict(Bundle bundle) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Iterator<Map.Entry<Key, Object>> it = segment.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry<Key, Object> e = it.next();
+                    if (isFrom(e.getKey().loader, e.getValue(), bundle)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segment(Key key) {
+        int h = key.hash;
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    private static boolean isFrom(Object loader, Object value, Bundle bundle) {
+        if (loader == bundle) {
+            return true;
+        }
+        if (loader instanceof BundleReference && ((BundleReference) loader).getBundle() == bundle) {
+            return true;
+        }
+        Class clazz = value instanceof Class ? (Class) value
+                : value instanceof ReifiedType ? ((ReifiedType) value).getRawClass() : null;
+        return clazz != null && clazz.getClassLoader() != null && FrameworkUtil.getBundle(clazz) == bundle;
+    }
+
+    private class Segment extends LinkedHashMap<Key, Object> {
+
+        Segment() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            return size() > segmentSize;
+        }
+    }
+
+    private static final class Key {
+
+        final String value;
+        final Class type;
+        final Object loader;
+        final int hash;
+
+        Key(String value, Class type, Object loader) {
+            this.value = value;
+            this.type = type;
+            this.loader = loader;
+            this.hash = 31 * (31 * value.hashCode() + type.hashCode()) + System.identityHashCode(loader);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return type == key.type && loader == key.loader && value.equals(key.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
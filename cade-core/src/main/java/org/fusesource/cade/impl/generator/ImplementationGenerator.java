@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl.generator;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.fusesource.cade.impl.Accessor;
+import org.fusesource.cade.impl.ConfigurationPlan;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates a final implementation class for a configuration interface.
+ *
+ * The generated class has one private final field per accessor, typed with the
+ * return type of the accessor (primitive types included), and a constructor taking
+ * the converted values as an <code>Object[]</code> indexed by {@link Accessor#getIndex()}
+ * and the configuration properties.  Accessors are plain field reads which can be
+ * inlined by the JIT, unlike calls going through a {@link java.lang.reflect.Proxy}.
+ * As for proxies, <code>toString()</code> returns the interface name followed by the
+ * properties.
+ */
+public class ImplementationGenerator implements Opcodes {
+
+    private static final String SUFFIX = "$$CadeImpl";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String STRING = "java/lang/String";
+    private static final String PROPERTIES = "properties";
+    private static final String PROPERTIES_DESC = "Ljava/util/Dictionary;";
+    private static final String CONSTRUCTOR_DESC = "([Ljava/lang/Object;" + PROPERTIES_DESC + ")V";
+
+    /**
+     * Generate the implementation for the given plan.
+     *
+     * @param plan the accessor plan of the configuration interface
+     * @return the constructor of the generated class, or <code>null</code>
+     *          if the interface can not be implemented this way
+     */
+    public static Constructor<?> generate(ConfigurationPlan plan) {
+        if (!canGenerate(plan)) {
+            return null;
+        }
+        try {
+            Class<?> type = plan.getType();
+            String name = type.getName() + SUFFIX;
+            byte[] bytes = generate(plan, name.replace('.', '/'));
+            Class<?> clazz = new GeneratorClassLoader(type.getClassLoader()).define(name, bytes);
+            return clazz.getConstructor(Object[].class, Dictionary.class);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Check if the given plan can be implemented with a generated class.
+     * This is not the case for lazy accessors, methods with parameters
+     * and types which would not be accessible from the generated class.
+     */
+    static boolean canGenerate(ConfigurationPlan plan) {
+        Class<?> type = plan.getType();
+        if (plan.isLazy() || !Modifier.isPublic(type.getModifiers()) || type.getClassLoader() == null) {
+            return false;
+        }
+        Set<String> names = new HashSet<String>();
+        for (Accessor accessor : plan.getAccessors()) {
+            Method method = accessor.getMethod();
+            if (method.getParameterTypes().length > 0 || !names.add(method.getName())) {
+                return false;
+            }
+            Class<?> returnType = method.getReturnType();
+            while (returnType.isArray()) {
+                returnType = returnType.getComponentType();
+            }
+            if (returnType == void.class || !Modifier.isPublic(returnType.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte[] generate(ConfigurationPlan plan, String internalName) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, internalName, null, OBJECT,
+                 new String[] { Type.getInternalName(plan.getType()) });
+        Accessor[] accessors = plan.getAccessors();
+        for (Accessor accessor : accessors) {
+            FieldVisitor fv = cw.visitField(ACC_PRIVATE | ACC_FINAL, fieldName(accessor),
+                                            Type.getDescriptor(accessor.getMethod().getReturnType()), null, null);
+            fv.visitEnd();
+        }
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, PROPERTIES, PROPERTIES_DESC, null, null).visitEnd();
+        generateConstructor(cw, internalName, accessors);
+        boolean toString = true;
+        for (Accessor accessor : accessors) {
+            generateAccessor(cw, internalName, accessor);
+            toString &= !"toString".equals(accessor.getMethod().getName());
+        }
+        if (toString) {
+            generateToString(cw, internalName, plan.getType().getName());
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void generateConstructor(ClassWriter cw, String internalName, Accessor[] accessors) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", CONSTRUCTOR_DESC, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V");
+        for (Accessor accessor : accessors) {
+            Type type = Type.getType(accessor.getMethod().getReturnType());
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 1);
+            pushInt(mv, accessor.getIndex());
+            mv.visitInsn(AALOAD);
+            unbox(mv, type);
+            mv.visitFieldInsn(PUTFIELD, internalName, fieldName(accessor), type.getDescriptor());
+        }
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitFieldInsn(PUTFIELD, internalName, PROPERTIES, PROPERTIES_DESC);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void generateAccessor(ClassWriter cw, String internalName, Accessor accessor) {
+        Method method = accessor.getMethod();
+        Type type = Type.getType(method.getReturnType());
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_FINAL, method.getName(),
+                                          Type.getMethodDescriptor(method), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, internalName, fieldName(accessor), type.getDescriptor());
+        mv.visitInsn(type.getOpcode(IRETURN));
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void generateToString(ClassWriter cw, String internalName, String typeName) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "toString", "()Ljava/lang/String;", null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(typeName);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, internalName, PROPERTIES, PROPERTIES_DESC);
+        mv.visitMethodInsn(INVOKESTATIC, STRING, "valueOf", "(Ljava/lang/Object;)Ljava/lang/String;");
+        mv.visitMethodInsn(INVOKEVIRTUAL, STRING, "concat", "(Ljava/lang/String;)Ljava/lang/String;");
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void unbox(MethodVisitor mv, Type type) {
+        String wrapper;
+        switch (type.getSort()) {
+            case Type.BOOLEAN: wrapper = "java/lang/Boolean"; break;
+            case Type.CHAR:    wrapper = "java/lang/Character"; break;
+            case Type.BYTE:    wrapper = "java/lang/Byte"; break;
+            case Type.SHORT:   wrapper = "java/lang/Short"; break;
+            case Type.INT:     wrapper = "java/lang/Integer"; break;
+            case Type.FLOAT:   wrapper = "java/lang/Float"; break;
+            case Type.LONG:    wrapper = "java/lang/Long"; break;
+            case Type.DOUBLE:  wrapper = "java/lang/Double"; break;
+            default:
+                if (!OBJECT.equals(type.getInternalName())) {
+                    mv.visitTypeInsn(CHECKCAST, type.getSort() == Type.ARRAY ? type.getDescriptor() : type.getInternalName());
+                }
+                return;
+        }
+        mv.visitTypeInsn(CHECKCAST, wrapper);
+        mv.visitMethodInsn(INVOKEVIRTUAL, wrapper, type.getClassName() + "Value", "()" + type.getDescriptor());
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    private static String fieldName(Accessor accessor) {
+        return "f" + accessor.getIndex();
+    }
+
+    /**
+     * Defines generated classes on top of the class loader of the configuration interface.
+     * Each generated class has its own loader, so that it can be garbage collected
+     * together with the plan it belongs to.
+     */
+    static class GeneratorClassLoader extends ClassLoader {
+
+        GeneratorClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+}
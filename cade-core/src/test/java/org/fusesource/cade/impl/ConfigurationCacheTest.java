@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ConfigurationCacheTest {
+
+    private static final String PID = "org.fusesource.cade.test";
+
+    private Metrics metrics;
+    private ConfigurationCache cache;
+    private Dictionary<String, Object> current;
+    private AtomicInteger queries;
+    private Object[] configAdmins;
+
+    @Before
+    public void setUp() {
+        metrics = new Metrics(null);
+        cache = new ConfigurationCache(metrics);
+        current = props("value", "1");
+        queries = new AtomicInteger();
+        configAdmins = new Object[] { configAdmin() };
+    }
+
+    @Test
+    public void testGetCachesConfigurations() {
+        assertEquals("1", cache.get(PID, configAdmins).get("value"));
+        assertEquals("1", cache.get(PID, configAdmins).get("value"));
+        assertEquals(1, queries.get());
+        assertEquals(1, metrics.cacheHits.get());
+        assertEquals(1, metrics.cacheMisses.get());
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.get(PID, configAdmins);
+        current = props("value", "2");
+        cache.invalidate(PID);
+        assertEquals("2", cache.get(PID, configAdmins).get("value"));
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void testPopulate() {
+        long generation = cache.getGeneration();
+        cache.populate(index(props("value", "1")), generation);
+        assertEquals("1", cache.get(PID, configAdmins).get("value"));
+        assertEquals(0, queries.get());
+    }
+
+    @Test
+    public void testPopulateKeepsLoadedEntries() {
+        long generation = cache.getGeneration();
+        cache.get(PID, configAdmins);
+        cache.populate(index(props("value", "0")), generation);
+        assertEquals("1", cache.get(PID, configAdmins).get("value"));
+    }
+
+    @Test
+    public void testEventBetweenListingAndPopulate() {
+        // list the configurations, then receive an event before populating
+        long generation = cache.getGeneration();
+        Map<String, Dictionary<?, ?>> listed = index(props("value", "1"));
+        current = props("value", "2");
+        cache.invalidate(PID);
+        cache.populate(listed, generation);
+        assertEquals("2", cache.get(PID, configAdmins).get("value"));
+        assertEquals(1, queries.get());
+    }
+
+    @Test
+    public void testClearBetweenListingAndPopulate() {
+        long generation = cache.getGeneration();
+        Map<String, Dictionary<?, ?>> listed = index(props("value", "1"));
+        current = null;
+        cache.clear();
+        cache.populate(listed, generation);
+        assertNull(cache.get(PID, configAdmins));
+    }
+
+    @Test
+    public void testFactoryQueriesRecordedByFactoryPid() {
+        for (int i = 0; i < 10; i++) {
+            cache.get(PID + "." + i, PID, configAdmins);
+        }
+        assertEquals(10, metrics.queries.total.getCount());
+        assertEquals(Collections.singleton(PID), metrics.queries.byKey.keySet());
+    }
+
+    private Map<String, Dictionary<?, ?>> index(Dictionary<String, Object> props) {
+        Map<String, Dictionary<?, ?>> index = new HashMap<String, Dictionary<?, ?>>();
+        index.put(PID, props);
+        return index;
+    }
+
+    private static Dictionary<String, Object> props(String key, Object value) {
+        Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(key, value);
+        return props;
+    }
+
+    private ConfigurationAdmin configAdmin() {
+        return (ConfigurationAdmin) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { ConfigurationAdmin.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("listConfigurations".equals(method.getName())) {
+                            queries.incrementAndGet();
+                            return current != null ? new Configuration[] { configuration(current) } : null;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private Configuration configuration(final Dictionary<String, Object> props) {
+        return (Configuration) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { Configuration.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("getPid".equals(method.getName())) {
+                            return PID;
+                        } else if ("getProperties".equals(method.getName())) {
+                            return props;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.util.Hashtable;
+
+import org.fusesource.cade.Meta;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ConfigurationValidatorTest {
+
+    public interface Config {
+
+        @Meta.Mandatory
+        String host();
+
+        @Meta.Default("80")
+        @Meta.Range(min = 1, max = 65535)
+        int port();
+
+        int timeout();
+
+        Integer retries();
+
+    }
+
+    private final ConfigurationValidator validator = ConfigurationValidator.compile(Config.class);
+
+    @Test
+    public void testValid() {
+        validator.validate(props("host", "localhost", "timeout", "10"));
+    }
+
+    @Test
+    public void testMissingMandatory() {
+        assertInvalid("Missing mandatory property host", props("timeout", "10"));
+    }
+
+    @Test
+    public void testPrimitivesAreMandatory() {
+        assertInvalid("Missing mandatory property timeout", props("host", "localhost"));
+    }
+
+    @Test
+    public void testRange() {
+        assertInvalid("Property port is out of range [1.0, 65535.0]: 0",
+                props("host", "localhost", "timeout", "10", "port", "0"));
+        assertInvalid("Property port is not a number: abc",
+                props("host", "localhost", "timeout", "10", "port", "abc"));
+    }
+
+    private void assertInvalid(String message, Hashtable<String, String> properties) {
+        try {
+            validator.validate(properties);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static Hashtable<String, String> props(String... keyValues) {
+        Hashtable<String, String> props = new Hashtable<String, String>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            props.put(keyValues[i], keyValues[i + 1]);
+        }
+        return props;
+    }
+
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeliverySchedulerTest {
+
+    private final TestScheduler scheduler = new TestScheduler();
+
+    @After
+    public void tearDown() {
+        scheduler.release();
+        scheduler.dispose();
+    }
+
+    @Test
+    public void testDeliverOnCallingThread() {
+        scheduler.add("a");
+        scheduler.submit("a");
+        scheduler.submit("a");
+        assertEquals(Collections.nCopies(2, Thread.currentThread()), scheduler.threads("a"));
+    }
+
+    @Test
+    public void testUnknownConfigurablesAreIgnored() {
+        scheduler.submit("a");
+        scheduler.add("b");
+        scheduler.remove("b");
+        scheduler.submit("b");
+        assertFalse(scheduler.contains("b"));
+        assertEquals(0, scheduler.count("a") + scheduler.count("b"));
+    }
+
+    @Test
+    public void testRequestsCollapsedWhileRunning() throws Exception {
+        scheduler.setPoolSize(1, 16);
+        scheduler.block("a");
+        scheduler.add("a");
+        scheduler.submit("a");
+        scheduler.awaitBlocked();
+        // requests received while running are collapsed into a single delivery
+        for (int i = 0; i < 10; i++) {
+            scheduler.submit("a");
+        }
+        scheduler.release();
+        scheduler.awaitCount("a", 2);
+        Thread.sleep(100);
+        assertEquals(2, scheduler.count("a"));
+    }
+
+    @Test
+    public void testNeverConcurrent() throws Exception {
+        scheduler.setPoolSize(4, 1024);
+        scheduler.add("a");
+        scheduler.add("b");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        scheduler.submit(j % 2 == 0 ? "a" : "b");
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        scheduler.awaitIdle();
+        assertEquals(1, scheduler.maxConcurrency.get());
+        assertTrue(scheduler.count("a") > 0);
+        assertTrue(scheduler.count("b") > 0);
+    }
+
+    @Test
+    public void testCallerRunsWhenQueueIsFull() throws Exception {
+        scheduler.setPoolSize(1, 1);
+        scheduler.block("a");
+        scheduler.add("a");
+        scheduler.add("b");
+        scheduler.add("c");
+        scheduler.submit("a");
+        scheduler.awaitBlocked();
+        // "b" fills the queue, "c" is delivered on the calling thread
+        scheduler.submit("b");
+        scheduler.submit("c");
+        assertEquals(Collections.singletonList(Thread.currentThread()), scheduler.threads("c"));
+        assertEquals(0, scheduler.count("b"));
+        scheduler.release();
+        scheduler.awaitCount("b", 1);
+    }
+
+    @Test
+    public void testAddedAgainWhileRunning() throws Exception {
+        scheduler.setPoolSize(2, 16);
+        scheduler.block("a");
+        scheduler.add("a");
+        scheduler.submit("a");
+        scheduler.awaitBlocked();
+        scheduler.remove("a");
+        assertFalse(scheduler.contains("a"));
+        // the running slot is kept, so the new delivery waits for the running one
+        scheduler.add("a");
+        assertTrue(scheduler.contains("a"));
+        scheduler.submit("a");
+        Thread.sleep(100);
+        assertEquals(0, scheduler.count("a"));
+        scheduler.release();
+        scheduler.awaitCount("a", 2);
+        assertEquals(1, scheduler.maxConcurrency.get());
+        List<Thread> threads = scheduler.threads("a");
+        assertSame(threads.get(0), threads.get(1));
+    }
+
+    @Test
+    public void testRemovedWhileRunning() throws Exception {
+        scheduler.setPoolSize(1, 16);
+        scheduler.block("a");
+        scheduler.add("a");
+        scheduler.submit("a");
+        scheduler.awaitBlocked();
+        scheduler.submit("a");
+        scheduler.remove("a");
+        scheduler.release();
+        scheduler.awaitIdle();
+        // the pending request is dropped with the Configurable
+        assertEquals(1, scheduler.count("a"));
+        assertFalse(scheduler.contains("a"));
+    }
+
+    /**
+     * Records the deliveries and the highest number of concurrent deliveries
+     * to a same Configurable, optionally blocking them until released.
+     */
+    static class TestScheduler extends DeliveryScheduler<String> {
+
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        final ConcurrentMap<String, AtomicInteger> running = new ConcurrentHashMap<String, AtomicInteger>();
+        final AtomicInteger maxConcurrency = new AtomicInteger();
+        volatile String blocking;
+        volatile CountDownLatch blocked = new CountDownLatch(0);
+        volatile CountDownLatch released = new CountDownLatch(0);
+
+        protected void deliver(String configurable) {
+            running.putIfAbsent(configurable, new AtomicInteger());
+            int concurrency = running.get(configurable).incrementAndGet();
+            try {
+                for (;;) {
+                    int max = maxConcurrency.get();
+                    if (concurrency <= max || maxConcurrency.compareAndSet(max, concurrency)) {
+                        break;
+                    }
+                }
+                if (configurable.equals(blocking)) {
+                    blocked.countDown();
+                    released.await();
+                }
+                Thread.yield();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.get(configurable).decrementAndGet();
+            }
+            synchronized (delivered) {
+                delivered.add(configurable);
+                threads.add(Thread.currentThread());
+                delivered.notifyAll();
+            }
+        }
+
+        void block(String configurable) {
+            blocking = configurable;
+            blocked = new CountDownLatch(1);
+            released = new CountDownLatch(1);
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        int count(String configurable) {
+            return Collections.frequency(delivered, configurable);
+        }
+
+        List<Thread> threads(String configurable) {
+            List<Thread> result = new ArrayList<Thread>();
+            synchronized (delivered) {
+                for (int i = 0; i < delivered.size(); i++) {
+                    if (delivered.get(i).equals(configurable)) {
+                        result.add(threads.get(i));
+                    }
+                }
+            }
+            return result;
+        }
+
+        void awaitCount(String configurable, int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            synchronized (delivered) {
+                while (count(configurable) < count && System.currentTimeMillis() < end) {
+                    delivered.wait(100);
+                }
+            }
+            assertEquals(count, count(configurable));
+        }
+
+        void awaitIdle() throws InterruptedException {
+            int count;
+            do {
+                count = delivered.size();
+                Thread.sleep(100);
+            } while (count != delivered.size() || isRunning());
+        }
+
+        boolean isRunning() {
+            for (AtomicInteger count : running.values()) {
+                if (count.get() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,453 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl.converter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.fusesource.cade.Converter;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the conversions against the results of the original converter,
+ * recorded in <code>conversions.txt</code> for each accessor of {@link Target}
+ * and each of the {@link #INPUTS}.  Containers are compared by content only,
+ * as the container classes returned for interface types have changed.
+ */
+public class DefaultConverterTest {
+
+    public enum Color { RED, GREEN }
+
+    public interface Target {
+        int i(); Integer integer(); long l(); double d(); boolean b(); char c(); byte by(); short s(); float f();
+        String str(); Color color(); Object o(); Number n(); BigDecimal bd(); AtomicInteger ai();
+        Class<?> cls(); Locale locale(); Pattern pattern(); File file(); Properties props();
+        List<String> ls(); List<Integer> li(); Set<Long> sl(); SortedSet<Integer> ss(); Collection<String> cs();
+        Queue<String> q(); ArrayList<String> al(); List<List<String>> lls(); List<int[]> lia();
+        Map<String, Integer> msi(); Dictionary<String, Integer> dsi(); ConcurrentMap<String, String> cm();
+        int[] ia(); Integer[] integers(); long[] la(); short[] sa(); byte[] ba(); float[] fa(); double[] da();
+        String[] stra();
+    }
+
+    static final Object[] INPUTS = {
+            null, "12", " 1", "1.25", "-300", "true", "on", "x", "RED", "java.lang.String", "en_US", "a=b\nc=d",
+            "a.*b", 12, 12L, 1.5d, -1e20, Float.NaN,
+            new String[0], new String[] { "1", "2" }, new String[] { "1", "-2", "127" }, new String[] { "x" },
+            new Object[] { "1", 2L, null }, new Object[] { 1, 2L, 3.7 }, new Object[] { true }, new Object[] { "3", 4.5f },
+            Arrays.asList("3", "4"), Arrays.asList(5, 6), Arrays.asList(1, 2.9, -300, "12"), Arrays.asList(1e20, -1e10),
+            new Vector<Object>(Arrays.asList("1", 2)),
+            new int[] { 7, -129, 70000 }, new long[] { 1L << 40, -5 }, new double[] { 1.9, -2.9, 1e300 },
+            new float[] { 3.5f, -1e20f }, new short[] { -3, 300 }, new byte[] { -1, 5 }, new char[] { 'a' },
+            new boolean[] { true },
+            new Hashtable<String, String>(Collections.singletonMap("a", "1")), Collections.singletonMap("b", 2),
+    };
+
+    @Test
+    public void testSameResultsAsOriginalConverter() throws Exception {
+        Map<String, String> expected = load();
+        DefaultConverter converter = new DefaultConverter(getClass().getClassLoader(), new ConverterRegistry());
+        // twice, so that the cached conversions are checked too
+        for (int pass = 0; pass < 2; pass++) {
+            for (Method method : Target.class.getMethods()) {
+                for (int i = 0; i < INPUTS.length; i++) {
+                    String key = method.getName() + " " + i;
+                    assertNotNull("No expected result for " + key, expected.get(key));
+                    assertEquals(key + " <- " + show(INPUTS[i]), expected.get(key),
+                                 convert(converter, INPUTS[i], method.getGenericReturnType()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTokensSameAsArrays() throws Exception {
+        DefaultConverter converter = new DefaultConverter(getClass().getClassLoader());
+        Tokenizer tokenizer = new Tokenizer("\\s*,\\s*");
+        for (String value : new String[] { "1, 2 ,3", "a", "", "1,,2,," }) {
+            for (Method method : Target.class.getMethods()) {
+                Type type = method.getGenericReturnType();
+                Object tokens = tokenizer.split(value);
+                assertTrue(tokens instanceof Tokenizer.Tokens);
+                assertEquals(method.getName() + " <- " + value,
+                             convert(converter, value.split("\\s*,\\s*"), type), convert(converter, tokens, type));
+            }
+        }
+    }
+
+    @Test
+    public void testContainerMutability() throws Exception {
+        DefaultConverter converter = new DefaultConverter(null);
+        for (Object source : new Object[] { new String[] { "1", "2" }, Arrays.asList("1", "2") }) {
+            assertUnmodifiable(converter.convert(source, Target.class.getMethod("ls").getGenericReturnType()));
+            assertUnmodifiable(converter.convert(source, Target.class.getMethod("sl").getGenericReturnType()));
+            assertUnmodifiable(converter.convert(source, Target.class.getMethod("ss").getGenericReturnType()));
+            assertUnmodifiable(converter.convert(source, Target.class.getMethod("cs").getGenericReturnType()));
+            Object queue = converter.convert(source, Target.class.getMethod("q").getGenericReturnType());
+            assertTrue(queue instanceof LinkedList);
+            ((Queue<Object>) queue).add("3");
+            Object list = converter.convert(source, Target.class.getMethod("al").getGenericReturnType());
+            assertEquals(ArrayList.class, list.getClass());
+            ((List<Object>) list).add("3");
+        }
+        Map<String, String> source = Collections.singletonMap("a", "1");
+        Map<?, ?> map = (Map<?, ?>) converter.convert(source, Target.class.getMethod("msi").getGenericReturnType());
+        try {
+            map.clear();
+            fail("Map should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Map<Object, Object> cm = (Map<Object, Object>) converter.convert(source, Target.class.getMethod("cm").getGenericReturnType());
+        cm.put("b", "2");
+        Dictionary<Object, Object> dic = (Dictionary<Object, Object>) converter.convert(source, Target.class.getMethod("dsi").getGenericReturnType());
+        dic.put("b", 2);
+        Properties props = (Properties) converter.convert("a=b", Properties.class);
+        props.put("c", "d");
+        // the cached properties are copied
+        assertEquals(1, ((Properties) converter.convert("a=b", Properties.class)).size());
+    }
+
+    @Test
+    public void testConversionsAreCached() throws Exception {
+        ConverterRegistry registry = new ConverterRegistry();
+        DefaultConverter c1 = new DefaultConverter(null, registry);
+        DefaultConverter c2 = new DefaultConverter(null, registry);
+        // boot classes only: shared by all converters
+        GenericType integer = new GenericType(Integer.class);
+        Conversion conversion = c1.getConversion(String.class, integer);
+        assertSame(conversion, c1.getConversion(String.class, integer));
+        assertSame(conversion, c2.getConversion(String.class, new GenericType(Integer.class)));
+        assertSame(conversion, registry.getSharedConversions().get(new DefaultConverter.Key(String.class, integer)));
+        // classes from bundles: cached by each converter
+        GenericType color = new GenericType(Color.class);
+        conversion = c1.getConversion(String.class, color);
+        assertSame(conversion, c1.getConversion(String.class, color));
+        assertNotSame(conversion, c2.getConversion(String.class, color));
+        assertFalse(registry.getSharedConversions().containsKey(new DefaultConverter.Key(String.class, color)));
+    }
+
+    @Test
+    public void testConverterChangesInvalidateConversions() throws Exception {
+        ConverterRegistry registry = new ConverterRegistry();
+        DefaultConverter converter = new DefaultConverter(null, registry);
+        assertEquals(12, converter.convert("12", Integer.class));
+        assertEquals(Color.RED, converter.convert("RED", Color.class));
+        assertFalse(registry.getSharedConversions().isEmpty());
+
+        ServiceReference reference = reference(1L, "java.lang.Integer");
+        registry.addConverter(reference, new Converter() {
+            public boolean canConvert(Object source, Type target) {
+                return source instanceof String;
+            }
+            public Object convert(Object source, Type target) {
+                return "12".equals(source) ? 42 : null;
+            }
+        });
+        assertTrue(registry.getSharedConversions().isEmpty());
+        assertEquals(42, converter.convert("12", Integer.class));
+        assertEquals(13, converter.convert("13", Integer.class));
+        assertEquals(Color.RED, converter.convert("RED", Color.class));
+
+        registry.removeConverter(reference);
+        assertEquals(12, converter.convert("12", Integer.class));
+    }
+
+    @Test
+    public void testConvertersInRankingOrder() throws Exception {
+        ConverterRegistry registry = new ConverterRegistry();
+        Converter typed1 = new ConstantConverter("typed1");
+        Converter typed2 = new ConstantConverter("typed2");
+        Converter untyped1 = new ConstantConverter("untyped1");
+        Converter untyped2 = new ConstantConverter("untyped2");
+        registry.addConverter(reference(1L, 0, "java.lang.String"), typed1);
+        registry.addConverter(reference(2L, 10, null), untyped1);
+        registry.addConverter(reference(3L, 0, new String[] { "java.lang.String", "java.lang.Integer" }), typed2);
+        registry.addConverter(reference(4L, -10, null), untyped2);
+        assertEquals(Arrays.asList(untyped1, typed1, typed2, untyped2), Arrays.asList(registry.getConverters(String.class)));
+        assertEquals(Arrays.asList(untyped1, typed2, untyped2), Arrays.asList(registry.getConverters(Integer.class)));
+        assertEquals(Arrays.asList(untyped1, untyped2), Arrays.asList(registry.getConverters(Long.class)));
+    }
+
+    @Test
+    public void testAcceptingConverterIsRemembered() throws Exception {
+        ConverterRegistry registry = new ConverterRegistry();
+        ConstantConverter rejecting = new ConstantConverter(null);
+        ConstantConverter accepting = new ConstantConverter(Color.GREEN);
+        registry.addConverter(reference(1L, 10, null), rejecting);
+        registry.addConverter(reference(2L, 0, Color.class.getName()), accepting);
+        rejecting.accept = false;
+        DefaultConverter converter = new DefaultConverter(null, registry);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Color.GREEN, converter.convert("RED", Color.class));
+        }
+        assertEquals(1, rejecting.checks);
+        assertEquals(1, accepting.checks);
+        assertEquals(10, accepting.conversions);
+        // a null result lets the next conversions try
+        accepting.value = null;
+        assertEquals(Color.RED, converter.convert("RED", Color.class));
+    }
+
+    @Test
+    public void testBundleClassesNotPinned() throws Exception {
+        ConverterRegistry registry = new ConverterRegistry();
+        WeakReference<Class<?>> ref = convertWithBundleClass(registry);
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Bundle class pinned by the shared conversions", ref.get());
+        assertFalse(registry.getSharedConversions().isEmpty());
+    }
+
+    private WeakReference<Class<?>> convertWithBundleClass(ConverterRegistry registry) throws Exception {
+        ClassLoader loader = new BundleLoader(getClass().getClassLoader());
+        Class<?> clazz = loader.loadClass(Loaded.class.getName());
+        assertNotSame(Loaded.class, clazz);
+        DefaultConverter converter = new DefaultConverter(loader, registry);
+        Object value = converter.convert("x", clazz);
+        assertSame(clazz, value.getClass());
+        // the element conversions of boot containers are shared
+        List<Object> values = new ArrayList<Object>(Arrays.asList(value, value));
+        assertEquals(values, converter.convert(values, Holder.class.getMethod("list").getGenericReturnType()));
+        assertEquals(values, converter.convert(values.toArray(), Holder.class.getMethod("list").getGenericReturnType()));
+        assertEquals(values, converter.convert(new Vector<Object>(values), Holder.class.getMethod("queue").getGenericReturnType()));
+        assertEquals(Collections.singletonMap("a", value),
+                     converter.convert(Collections.singletonMap("a", value), Holder.class.getMethod("map").getGenericReturnType()));
+        return new WeakReference<Class<?>>(clazz);
+    }
+
+    public interface Holder {
+        List<Object> list(); Queue<Object> queue(); Map<String, Object> map();
+    }
+
+    /**
+     * A class to load from a separate class loader, as if it came from a bundle.
+     */
+    public static class Loaded {
+        private final String value;
+        public Loaded(String value) {
+            this.value = value;
+        }
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Loaded && value.equals(((Loaded) o).value);
+        }
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+    }
+
+    private static class BundleLoader extends ClassLoader {
+
+        BundleLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(Loaded.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            Class<?> clazz = findLoadedClass(name);
+            if (clazz == null) {
+                try {
+                    InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[4096];
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, n);
+                    }
+                    in.close();
+                    byte[] bytes = out.toByteArray();
+                    clazz = defineClass(name, bytes, 0, bytes.length);
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            return clazz;
+        }
+    }
+
+    private static class ConstantConverter implements Converter {
+
+        Object value;
+        boolean accept = true;
+        int checks;
+        int conversions;
+
+        ConstantConverter(Object value) {
+            this.value = value;
+        }
+
+        public boolean canConvert(Object source, Type target) {
+            checks++;
+            return accept;
+        }
+
+        public Object convert(Object source, Type target) {
+            conversions++;
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    private static ServiceReference reference(long id, Object types) {
+        return reference(id, 0, types);
+    }
+
+    private static ServiceReference reference(final long id, final int ranking, final Object types) {
+        return (ServiceReference) Proxy.newProxyInstance(DefaultConverterTest.class.getClassLoader(),
+                new Class[] { ServiceReference.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getProperty")) {
+                    if (Converter.TARGET_TYPES.equals(args[0])) {
+                        return types;
+                    } else if (Constants.SERVICE_ID.equals(args[0])) {
+                        return id;
+                    } else if (Constants.SERVICE_RANKING.equals(args[0])) {
+                        return ranking;
+                    }
+                    return null;
+                } else if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static void assertUnmodifiable(Object collection) {
+        try {
+            ((Collection<?>) collection).clear();
+            fail(collection.getClass() + " should be unmodifiable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    static String convert(DefaultConverter converter, Object value, Type type) {
+        try {
+            return show(converter.convert(value, type));
+        } catch (Throwable t) {
+            return "EX " + t.getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * Describe a value by its class and content, containers by their content only.
+     */
+    static String show(Object o) {
+        if (o == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder();
+        if (o.getClass().isArray()) {
+            sb.append(o.getClass().getSimpleName()).append('[');
+            for (int i = 0; i < Array.getLength(o); i++) {
+                sb.append(i > 0 ? "," : "").append(show(Array.get(o, i)));
+            }
+            return sb.append(']').toString();
+        }
+        if (o instanceof Collection) {
+            sb.append('(');
+            for (Object e : (Collection<?>) o) {
+                sb.append(sb.length() > 1 ? "," : "").append(show(e));
+            }
+            return sb.append(')').toString();
+        }
+        if (o instanceof Map) {
+            Map<String, String> sorted = new TreeMap<String, String>();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+                sorted.put(show(e.getKey()), show(e.getValue()));
+            }
+            return "{" + sorted.toString().substring(1);
+        }
+        String value = o instanceof Class ? ((Class<?>) o).getName() : o.toString();
+        return o.getClass().getSimpleName() + ":" + value.replace("\n", "\\n");
+    }
+
+    private Map<String, String> load() throws Exception {
+        Map<String, String> expected = new HashMap<String, String>();
+        InputStream in = getClass().getResourceAsStream("conversions.txt");
+        assertNotNull("conversions.txt not found", in);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int first = line.indexOf(' ');
+                int second = line.indexOf(' ', first + 1);
+                expected.put(line.substring(0, second), line.substring(second + 1));
+            }
+        } finally {
+            reader.close();
+        }
+        return expected;
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.impl.converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenizerTest {
+
+    private static final String[] SEPARATORS = {
+            ",", "\\s*,\\s*", ";", "\\|", "::", "\\s*::\\s*", "\\s*\\|\\s*", " ", "\\s+", "\\s* , \\s*", "[,;]"
+    };
+
+    private static final String[] VALUES = {
+            "", "a", ",", ",,", "a,", "a,,", ",a", ",,a", "a,b", "a,,b", "a,b,,,", " a , b ,", "a , ,b", " , ",
+            " ", "  a  ", "a :: b::c ::", "::", "a|b| |", "a;b,c", "\t a \t,\tb\t", "a,\n,b"
+    };
+
+    @Test
+    public void testSameAsStringSplit() {
+        for (String separator : SEPARATORS) {
+            for (String value : VALUES) {
+                assertSplit(separator, value);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomValues() {
+        Random random = new Random(0);
+        char[] chars = { 'a', 'b', ' ', '\t', ',', ';', '|', ':' };
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(12); j > 0; j--) {
+                sb.append(chars[random.nextInt(chars.length)]);
+            }
+            for (String separator : SEPARATORS) {
+                assertSplit(separator, sb.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testLiteralSeparatorsAreNotRegex() {
+        assertTrue(new Tokenizer(",").split("a,b") instanceof Tokenizer.Tokens);
+        assertTrue(new Tokenizer("\\s*,\\s*").split("a,b") instanceof Tokenizer.Tokens);
+        assertTrue(new Tokenizer("\\|").split("a|b") instanceof Tokenizer.Tokens);
+        assertTrue(new Tokenizer("\\s+").split("a b") instanceof String[]);
+        // spaces around the literal would be eaten by the surrounding \s*
+        assertTrue(new Tokenizer("\\s* , \\s*").split("a , b") instanceof String[]);
+    }
+
+    @Test
+    public void testTokens() {
+        Collection<?> tokens = (Collection<?>) new Tokenizer("\\s*,\\s*").split(" a , b ,, c ,,");
+        assertEquals(4, tokens.size());
+        assertArrayEquals(new String[] { " a", "b", "", "c" }, tokens.toArray());
+        Iterator<?> it = tokens.iterator();
+        assertEquals(" a", it.next());
+        assertEquals("b", it.next());
+        assertEquals("", it.next());
+        assertEquals("c", it.next());
+        assertTrue(!it.hasNext());
+    }
+
+    private static void assertSplit(String separator, String value) {
+        List<String> expected = Arrays.asList(value.split(separator));
+        Object result = new Tokenizer(separator).split(value);
+        List<String> actual;
+        if (result instanceof String[]) {
+            actual = Arrays.asList((String[]) result);
+        } else {
+            Collection<String> tokens = (Collection<String>) result;
+            actual = new ArrayList<String>(tokens);
+            assertEquals(expected.size(), tokens.size());
+            assertEquals(expected, Arrays.asList(tokens.toArray()));
+        }
+        assertEquals("'" + value + "'.split(\"" + separator + "\")", expected, actual);
+    }
+
+}
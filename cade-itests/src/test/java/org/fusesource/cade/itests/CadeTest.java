@@ -23,13 +23,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Properties;
 
 import org.fusesource.cade.itests.model.Activator;
 import org.fusesource.cade.itests.model.Config1;
 import org.fusesource.cade.itests.model.Config2;
+import org.fusesource.cade.itests.model.Config3;
 import org.fusesource.cade.itests.model.Service1;
 import org.fusesource.cade.itests.model.Service2;
+import org.fusesource.cade.itests.model.Service3;
+import org.fusesource.cade.itests.model.Service4;
+import org.fusesource.cade.itests.model.Service5;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.ops4j.pax.exam.Customizer;
@@ -43,6 +48,7 @@ import org.osgi.service.cm.ConfigurationAdmin;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.ops4j.pax.exam.CoreOptions.felix;
 import static org.ops4j.pax.exam.container.def.PaxRunnerOptions.logProfile;
 import static org.ops4j.pax.swissbox.tinybundles.core.TinyBundles.modifyBundle;
@@ -58,6 +64,7 @@ public class CadeTest extends AbstractIntegrationTest {
 
     private static final String PID_CONFIG1 = "org.fusesource.cade.itests.model.Config1";
     private static final String PID_CONFIG2 = "org.fusesource.cade.itests.model.CustomPID";
+    private static final String PID_CONFIG3 = "org.fusesource.cade.itests.model.Config3";
 
     @Test
     public void testSvc1() throws Exception {
@@ -83,11 +90,20 @@ public class CadeTest extends AbstractIntegrationTest {
             assertEquals("localhost", svc1.getConfig().host());
             assertEquals(8080, svc1.getConfig().port());
 
-            // TODO: mandatory is not handled yet
-//            ca.getConfiguration("org.fusesource.cade.itests.model.Config1")
-//                    .update(props("port", "8080"));
-//            svc1.wait(10000);
-//            assertNull(svc1.getConfig());
+            ca.getConfiguration(PID_CONFIG1).update(props("port", "8080"));
+            System.err.println("Waiting for Service1");
+            svc1.wait(10000);
+            assertNull(svc1.getConfig());
+
+            ca.getConfiguration(PID_CONFIG1).update(props("host", "localhost", "port", "8080"));
+            System.err.println("Waiting for Service1");
+            svc1.wait(10000);
+            assertNotNull(svc1.getConfig());
+
+            ca.getConfiguration(PID_CONFIG1).update(props("host", "localhost", "port", "0"));
+            System.err.println("Waiting for Service1");
+            svc1.wait(10000);
+            assertNull(svc1.getConfig());
 
             ca.getConfiguration(PID_CONFIG1).delete();
             System.err.println("Waiting for Service1");
@@ -120,6 +136,96 @@ public class CadeTest extends AbstractIntegrationTest {
         }
     }
 
+    @Test
+    public void testSvc3() throws Exception {
+        ConfigurationAdmin ca = getOsgiService(ConfigurationAdmin.class);
+        Service3 svc3 = getOsgiService(Service3.class);
+
+        assertTrue(svc3.getConfigs().isEmpty());
+
+        synchronized (svc3) {
+            org.osgi.service.cm.Configuration cfg1 = ca.createFactoryConfiguration(PID_CONFIG1);
+            cfg1.update(props("host", "host1"));
+            System.err.println("Waiting for Service3 / instance 1");
+            svc3.wait(10000);
+            org.osgi.service.cm.Configuration cfg2 = ca.createFactoryConfiguration(PID_CONFIG1);
+            cfg2.update(props("host", "host2", "port", "8080"));
+            System.err.println("Waiting for Service3 / instance 2");
+            svc3.wait(10000);
+            assertEquals(2, svc3.getConfigs().size());
+            assertEquals("host1", svc3.getConfigs().get(cfg1.getPid()).host());
+            assertEquals(80, svc3.getConfigs().get(cfg1.getPid()).port());
+            assertEquals("host2", svc3.getConfigs().get(cfg2.getPid()).host());
+            assertEquals(8080, svc3.getConfigs().get(cfg2.getPid()).port());
+
+            cfg1.delete();
+            System.err.println("Waiting for Service3 / instance 1");
+            svc3.wait(10000);
+            assertEquals(1, svc3.getConfigs().size());
+            assertNotNull(svc3.getConfigs().get(cfg2.getPid()));
+
+            cfg2.delete();
+            System.err.println("Waiting for Service3 / instance 2");
+            svc3.wait(10000);
+            assertTrue(svc3.getConfigs().isEmpty());
+        }
+    }
+
+    @Test
+    public void testSvc4() throws Exception {
+        ConfigurationAdmin ca = getOsgiService(ConfigurationAdmin.class);
+        Service4 svc4 = getOsgiService(Service4.class);
+
+        ca.getConfiguration(PID_CONFIG1).delete();
+        Thread.sleep(500);
+        assertNull(svc4.getConfig());
+
+        synchronized (svc4) {
+            ca.getConfiguration(PID_CONFIG1).update(props("host", "localhost"));
+            System.err.println("Waiting for Service4");
+            svc4.wait(10000);
+            assertNotNull(svc4.getConfig());
+            assertTrue(svc4.getChanges().isEmpty());
+
+            ca.getConfiguration(PID_CONFIG1).update(props("host", "localhost", "port", "8080"));
+            System.err.println("Waiting for Service4");
+            svc4.wait(10000);
+            assertEquals(8080, svc4.getConfig().port());
+            assertEquals(Collections.singleton("port"), svc4.getChanges());
+
+            ca.getConfiguration(PID_CONFIG1).delete();
+            System.err.println("Waiting for Service4");
+            svc4.wait(10000);
+            assertNull(svc4.getConfig());
+        }
+    }
+
+    @Test
+    public void testSvc5() throws Exception {
+        ConfigurationAdmin ca = getOsgiService(ConfigurationAdmin.class);
+        Service5 svc5 = getOsgiService(Service5.class);
+
+        ca.getConfiguration(PID_CONFIG3).delete();
+        Thread.sleep(500);
+        assertNull(svc5.getConfig());
+
+        synchronized (svc5) {
+            ca.getConfiguration(PID_CONFIG3).update(props("host", "localhost", "timeout", "10"));
+            System.err.println("Waiting for Service5");
+            svc5.wait(10000);
+            assertNotNull(svc5.getConfig());
+            assertEquals(10, svc5.getConfig().timeout());
+
+            // a primitive property without value nor default is mandatory
+            ca.getConfiguration(PID_CONFIG3).update(props("host", "localhost"));
+            System.err.println("Waiting for Service5");
+            svc5.wait(10000);
+            assertNull(svc5.getConfig());
+
+            ca.getConfiguration(PID_CONFIG3).delete();
+        }
+    }
+
     public static Properties props(String... values) {
         Properties props = new Properties();
         for (int i = 0; i < values.length;) {
@@ -140,6 +246,10 @@ public class CadeTest extends AbstractIntegrationTest {
                         .add( Service1.class )
                         .add( Config2.class )
                         .add( Service2.class )
+                        .add( Service3.class )
+                        .add( Service4.class )
+                        .add( Config3.class )
+                        .add( Service5.class )
                         .set( BUNDLE_SYMBOLICNAME, "Test-Bundle-Model" )
                         .set( EXPORT_PACKAGE, "org.fusesource.cade.itests.model" )
                         .set( IMPORT_PACKAGE, "*" )
@@ -154,6 +264,10 @@ public class CadeTest extends AbstractIntegrationTest {
                                 .removeResource( mapClassToEntry( Service1.class.getName() ) )
                                 .removeResource( mapClassToEntry( Config2.class.getName() ) )
                                 .removeResource( mapClassToEntry( Service2.class.getName() ) )
+                                .removeResource( mapClassToEntry( Service3.class.getName() ) )
+                                .removeResource( mapClassToEntry( Service4.class.getName() ) )
+                                .removeResource( mapClassToEntry( Config3.class.getName() ) )
+                                .removeResource( mapClassToEntry( Service5.class.getName() ) )
                                 .build( withBnd() );
                     }
                 }
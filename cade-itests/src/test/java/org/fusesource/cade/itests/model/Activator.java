@@ -18,6 +18,7 @@
 package org.fusesource.cade.itests.model;
 
 import org.fusesource.cade.Configurable;
+import org.fusesource.cade.FactoryConfigurable;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 
@@ -26,6 +27,9 @@ public class Activator implements BundleActivator {
     public void start(BundleContext context) throws Exception {
         context.registerService(new String[] { Service1.class.getName(), Configurable.class.getName() }, new Service1(), null);
         context.registerService(new String[] { Service2.class.getName(), Configurable.class.getName() }, new Service2(), null);
+        context.registerService(new String[] { Service3.class.getName(), FactoryConfigurable.class.getName() }, new Service3(), null);
+        context.registerService(new String[] { Service4.class.getName(), Configurable.class.getName() }, new Service4(), null);
+        context.registerService(new String[] { Service5.class.getName(), Configurable.class.getName() }, new Service5(), null);
     }
 
     public void stop(BundleContext context) throws Exception {
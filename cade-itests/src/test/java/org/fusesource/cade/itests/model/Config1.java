@@ -25,6 +25,7 @@ public interface Config1 {
     String host();
 
     @Meta.Default("80")
+    @Meta.Range(min = 1, max = 65535)
     int port();
     
 }
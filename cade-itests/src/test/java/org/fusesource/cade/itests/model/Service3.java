@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.itests.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fusesource.cade.FactoryConfigurable;
+
+public class Service3 implements FactoryConfigurable<Config1> {
+
+    private final Map<String, Config1> configs = new HashMap<String, Config1>();
+
+    public synchronized Map<String, Config1> getConfigs() {
+        return new HashMap<String, Config1>(configs);
+    }
+
+    public synchronized void setup(String pid, Config1 config) {
+        System.err.println("Setup Config1 instance " + pid);
+        configs.put(pid, config);
+        notifyAll();
+    }
+
+    public synchronized void deleted(String pid) {
+        System.err.println("Deleted Config1 instance " + pid);
+        configs.remove(pid);
+        notifyAll();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.itests.model;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.fusesource.cade.IncrementalConfigurable;
+
+public class Service4 implements IncrementalConfigurable<Config1> {
+
+    private Config1 config;
+    private Set<String> changes = Collections.emptySet();
+
+    public synchronized Config1 getConfig() {
+        return config;
+    }
+
+    public synchronized Set<String> getChanges() {
+        return changes;
+    }
+
+    public synchronized void setup(Config1 config) {
+        System.err.println("Setup Config1");
+        this.config = config;
+        this.changes = Collections.emptySet();
+        notifyAll();
+    }
+
+    public synchronized void update(Config1 previous, Config1 config, Set<String> changes) {
+        System.err.println("Update Config1 " + changes);
+        this.config = config;
+        this.changes = changes;
+        notifyAll();
+    }
+
+    public synchronized void deleted() {
+        System.err.println("Deleted Config1");
+        this.config = null;
+        this.changes = Collections.emptySet();
+        notifyAll();
+    }
+}
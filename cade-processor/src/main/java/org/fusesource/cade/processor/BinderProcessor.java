@@ -0,0 +1,358 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import org.fusesource.cade.Binder;
+import org.fusesource.cade.Meta;
+
+/**
+ * Annotation processor generating a {@link Binder} for each configuration
+ * interface using the {@link Meta} annotations.
+ *
+ * The generated binder reads the properties and builds an instance of a
+ * private implementation class, so that the extender does not need to
+ * introspect the interface nor create proxies at runtime.  Like the runtime
+ * configurations, its <code>toString()</code> returns the interface name
+ * followed by the properties.  Interfaces which can not be bound this way
+ * (generic interfaces, methods with parameters, lazy properties) are skipped
+ * with a note and are handled at runtime.
+ */
+@SupportedAnnotationTypes({
+        "org.fusesource.cade.Meta.PID",
+        "org.fusesource.cade.Meta.Key",
+        "org.fusesource.cade.Meta.Default",
+        "org.fusesource.cade.Meta.Mandatory",
+        "org.fusesource.cade.Meta.Separated"
+})
+public class BinderProcessor extends AbstractProcessor {
+
+    private final Set<String> generated = new HashSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.METHOD) {
+                    element = element.getEnclosingElement();
+                }
+                if (element.getKind() == ElementKind.INTERFACE) {
+                    types.add((TypeElement) element);
+                }
+            }
+        }
+        for (TypeElement type : types) {
+            String name = getBinaryName(type);
+            if (!Meta.class.getName().equals(name) && generated.add(name)) {
+                try {
+                    generate(type);
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Unable to generate binder for " + name + ": " + e, type);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement type) throws IOException {
+        if (type.getModifiers().contains(Modifier.PRIVATE) || !type.getTypeParameters().isEmpty()) {
+            skip(type, "private or generic interface");
+            return;
+        }
+        Map<String, ExecutableElement> methods = new LinkedHashMap<String, ExecutableElement>();
+        collectMethods(type, methods);
+        List<Property> properties = new ArrayList<Property>();
+        for (ExecutableElement method : methods.values()) {
+            TypeMirror returnType = method.getReturnType();
+            if (!method.getParameters().isEmpty() || !method.getTypeParameters().isEmpty()
+                    || returnType.getKind() == TypeKind.VOID || returnType.getKind() == TypeKind.TYPEVAR
+                    || returnType.getKind() == TypeKind.WILDCARD) {
+                skip(type, "method " + method + " is not a property accessor");
+                return;
+            }
+            if (method.getAnnotation(Meta.Lazy.class) != null
+                    || method.getEnclosingElement().getAnnotation(Meta.Lazy.class) != null) {
+                skip(type, "lazy properties are not supported");
+                return;
+            }
+            properties.add(new Property(method));
+        }
+        List<String> pids = new ArrayList<String>();
+        collectPids(type, pids);
+        write(type, pids, properties);
+    }
+
+    private void skip(TypeElement type, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "No binder generated for " + type.getQualifiedName() + ": " + reason, type);
+    }
+
+    /**
+     * Collect the accessors of the interface and its super interfaces.
+     * When a method is redeclared, the most specific declaration wins.
+     */
+    private void collectMethods(TypeElement type, Map<String, ExecutableElement> methods) {
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (method.getModifiers().contains(Modifier.ABSTRACT)
+                    && !methods.containsKey(method.getSimpleName().toString())) {
+                methods.put(method.getSimpleName().toString(), method);
+            }
+        }
+        for (TypeMirror itf : type.getInterfaces()) {
+            collectMethods((TypeElement) ((DeclaredType) itf).asElement(), methods);
+        }
+    }
+
+    /**
+     * Collect the PIDs the same way the extender does at runtime.
+     */
+    private void collectPids(TypeElement type, List<String> pids) {
+        String name = getBinaryName(type);
+        if (!Meta.class.getName().equals(name)) {
+            Meta.PID pid = type.getAnnotation(Meta.PID.class);
+            if (pid == null) {
+                pids.add(name);
+            } else if (pid.value() != null && pid.value().length() > 0) {
+                pids.add(pid.value());
+            }
+        }
+        for (TypeMirror itf : type.getInterfaces()) {
+            collectPids((TypeElement) ((DeclaredType) itf).asElement(), pids);
+        }
+    }
+
+    private void write(TypeElement type, List<String> pids, List<Property> properties) throws IOException {
+        String binaryName = getBinaryName(type);
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binderName = binaryName.substring(packageName.length() > 0 ? packageName.length() + 1 : 0) + Binder.SUFFIX;
+        String typeName = type.getQualifiedName().toString();
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(binaryName + Binder.SUFFIX, type);
+        PrintWriter out = new PrintWriter(file.openWriter());
+        try {
+            if (packageName.length() > 0) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Binder for {@link " + typeName + "}.");
+            out.println(" * Generated by " + getClass().getName() + ", do not edit.");
+            out.println(" */");
+            out.println("public final class " + binderName + " implements org.fusesource.cade.Binder<" + typeName + "> {");
+            out.println();
+            out.print("    private static final String[] PIDS = {");
+            for (int i = 0; i < pids.size(); i++) {
+                out.print((i > 0 ? ", " : " ") + literal(pids.get(i)));
+            }
+            out.println(" };");
+            for (Property property : properties) {
+                if (property.generic) {
+                    out.println();
+                    out.println("    private static final java.lang.reflect.Type TYPE_" + property.name
+                            + " = type(" + literal(property.name) + ");");
+                }
+                if (property.separator != null) {
+                    out.println();
+                    out.println("    private static final java.util.regex.Pattern SEPARATOR_" + property.name
+                            + " = java.util.regex.Pattern.compile(" + literal(property.separator) + ");");
+                }
+            }
+            out.println();
+            out.println("    public Class<" + typeName + "> getType() {");
+            out.println("        return " + typeName + ".class;");
+            out.println("    }");
+            out.println();
+            out.println("    public String[] getPids() {");
+            out.println("        return PIDS.clone();");
+            out.println("    }");
+            out.println();
+            out.println("    @SuppressWarnings(\"unchecked\")");
+            out.println("    public " + typeName + " bind(java.util.Dictionary<?, ?> properties, org.fusesource.cade.Binder.TypeConverter converter) throws Exception {");
+            out.print("        return new Impl(properties");
+            for (Property property : properties) {
+                out.println(",");
+                out.print("                " + property.getValueExpression());
+            }
+            out.println(");");
+            out.println("    }");
+            out.println();
+            out.println("    private static Object value(java.util.Dictionary<?, ?> properties, String key, String alias, String defaultValue, java.util.regex.Pattern separator) {");
+            out.println("        Object value = properties.get(key);");
+            out.println("        if (value == null && alias != null) {");
+            out.println("            value = properties.get(alias);");
+            out.println("        }");
+            out.println("        if (value == null) {");
+            out.println("            value = defaultValue;");
+            out.println("        }");
+            out.println("        if (value != null && separator != null) {");
+            out.println("            value = separator.split(value.toString());");
+            out.println("        }");
+            out.println("        return value;");
+            out.println("    }");
+            out.println();
+            out.println("    private static Object convert(Object value, java.lang.reflect.Type type, org.fusesource.cade.Binder.TypeConverter converter) throws Exception {");
+            out.println("        return value != null ? converter.convert(value, type) : null;");
+            out.println("    }");
+            out.println();
+            out.println("    private static Object require(Object value, String key) {");
+            out.println("        if (value == null) {");
+            out.println("            throw new IllegalArgumentException(\"No value for property \" + key);");
+            out.println("        }");
+            out.println("        return value;");
+            out.println("    }");
+            out.println();
+            out.println("    private static java.lang.reflect.Type type(String name) {");
+            out.println("        try {");
+            out.println("            return " + typeName + ".class.getMethod(name).getGenericReturnType();");
+            out.println("        } catch (NoSuchMethodException e) {");
+            out.println("            throw new IllegalStateException(e);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            out.println("    private static final class Impl implements " + typeName + " {");
+            out.println();
+            // the properties are suffixed with $ to not clash with a property of the same name
+            out.println("        private final java.util.Dictionary<?, ?> properties$;");
+            for (Property property : properties) {
+                out.println("        private final " + property.type + " " + property.name + ";");
+            }
+            out.println();
+            out.print("        Impl(java.util.Dictionary<?, ?> properties$");
+            for (Property property : properties) {
+                out.print(", " + property.type + " " + property.name);
+            }
+            out.println(") {");
+            out.println("            this.properties$ = properties$;");
+            boolean toString = true;
+            for (Property property : properties) {
+                out.println("            this." + property.name + " = " + property.name + ";");
+                toString &= !"toString".equals(property.name);
+            }
+            out.println("        }");
+            for (Property property : properties) {
+                out.println();
+                out.println("        public " + property.type + " " + property.name + "() {");
+                out.println("            return " + property.name + ";");
+                out.println("        }");
+            }
+            if (toString) {
+                // same as the configurations built at runtime
+                out.println();
+                out.println("        @Override");
+                out.println("        public String toString() {");
+                out.println("            return " + typeName + ".class.getName() + properties$;");
+                out.println("        }");
+            }
+            out.println("    }");
+            out.println("}");
+        } finally {
+            out.close();
+        }
+    }
+
+    private String getBinaryName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    private String literal(String value) {
+        return value != null ? processingEnv.getElementUtils().getConstantExpression(value) : "null";
+    }
+
+    /**
+     * The resolved metadata of an accessor, mirroring the runtime accessor plan.
+     */
+    class Property {
+
+        final String name;
+        final String type;
+        final String key;
+        final String alias;
+        final String defaultValue;
+        final String separator;
+        final boolean generic;
+        final TypeMirror returnType;
+
+        Property(ExecutableElement method) {
+            this.name = method.getSimpleName().toString();
+            this.returnType = method.getReturnType();
+            this.type = returnType.toString();
+            Meta.Key k = method.getAnnotation(Meta.Key.class);
+            if (k != null) {
+                this.key = k.value();
+                this.alias = null;
+            } else {
+                String dotted = name.replace('_', '.');
+                this.key = name;
+                this.alias = dotted.equals(name) ? null : dotted;
+            }
+            Meta.Default def = method.getAnnotation(Meta.Default.class);
+            this.defaultValue = def != null ? def.value() : null;
+            Meta.Separated sep = method.getAnnotation(Meta.Separated.class);
+            this.separator = sep != null ? sep.value() : null;
+            this.generic = !processingEnv.getTypeUtils().erasure(returnType).toString().equals(type);
+        }
+
+        String getValueExpression() {
+            String value = "value(properties, " + literal(key) + ", " + literal(alias) + ", "
+                    + literal(defaultValue) + ", " + (separator != null ? "SEPARATOR_" + name : "null") + ")";
+            if (returnType.getKind().isPrimitive()) {
+                String boxed = processingEnv.getTypeUtils().boxedClass(
+                        processingEnv.getTypeUtils().getPrimitiveType(returnType.getKind())).getQualifiedName().toString();
+                return "((" + boxed + ") require(convert(" + value + ", " + type + ".class, converter), "
+                        + literal(key) + "))." + type + "Value()";
+            } else if (generic) {
+                return "(" + type + ") convert(" + value + ", TYPE_" + name + ", converter)";
+            } else {
+                return "(" + type + ") convert(" + value + ", " + type + ".class, converter)";
+            }
+        }
+    }
+
+}
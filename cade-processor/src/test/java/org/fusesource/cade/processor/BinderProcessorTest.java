@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2010 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fusesource.cade.processor;
+
+import java.io.File;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.fusesource.cade.Binder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compiles configuration interfaces shaped like the ones of the integration
+ * tests with the {@link BinderProcessor} and checks the generated binders.
+ */
+public class BinderProcessorTest {
+
+    private static final String CONFIG1 =
+            "package model;\n"
+            + "import org.fusesource.cade.Meta;\n"
+            + "public interface Config1 {\n"
+            + "    @Meta.Mandatory\n"
+            + "    String host();\n"
+            + "    @Meta.Default(\"80\")\n"
+            + "    @Meta.Range(min = 1, max = 65535)\n"
+            + "    int port();\n"
+            + "}\n";
+
+    private static final String CONFIG2 =
+            "package model;\n"
+            + "import java.util.List;\n"
+            + "import org.fusesource.cade.Meta;\n"
+            + "@Meta.PID(\"model.CustomPID\")\n"
+            + "public interface Config2 extends Config1 {\n"
+            + "    @Meta.Separated\n"
+            + "    List<String> tokens();\n"
+            + "}\n";
+
+    // a primitive without default; the key only makes the processor handle the interface
+    private static final String CONFIG3 =
+            "package model;\n"
+            + "import org.fusesource.cade.Meta;\n"
+            + "public interface Config3 {\n"
+            + "    @Meta.Key(\"timeout\")\n"
+            + "    int timeout();\n"
+            + "}\n";
+
+    private static ClassLoader loader;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        File output = new File("target/generated-test-binders");
+        output.mkdirs();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        try {
+            JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null,
+                    Arrays.asList("-d", output.getPath(), "-s", output.getPath(),
+                                  "-classpath", System.getProperty("java.class.path")),
+                    null,
+                    Arrays.asList(source("Config1", CONFIG1), source("Config2", CONFIG2), source("Config3", CONFIG3)));
+            task.setProcessors(Arrays.asList(new BinderProcessor()));
+            assertTrue("Compilation failed", task.call());
+        } finally {
+            fileManager.close();
+        }
+        loader = new URLClassLoader(new URL[] { output.toURI().toURL() }, BinderProcessorTest.class.getClassLoader());
+    }
+
+    private static JavaFileObject source(String name, final String content) {
+        return new SimpleJavaFileObject(URI.create("string:///model/" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return content;
+            }
+        };
+    }
+
+    @Test
+    public void testConfig1() throws Exception {
+        Binder<?> binder = binder("Config1");
+        assertArrayEquals(new String[] { "model.Config1" }, binder.getPids());
+
+        Dictionary<String, String> props = props("host", "localhost", "port", "8080");
+        Object config = binder.bind(props, new TestConverter());
+        assertEquals("localhost", invoke(config, "host"));
+        assertEquals(8080, invoke(config, "port"));
+        assertEquals("model.Config1" + props, config.toString());
+
+        config = binder.bind(props("host", "localhost"), new TestConverter());
+        assertEquals(80, invoke(config, "port"));
+    }
+
+    @Test
+    public void testConfig2() throws Exception {
+        Binder<?> binder = binder("Config2");
+        assertArrayEquals(new String[] { "model.CustomPID", "model.Config1" }, binder.getPids());
+
+        Dictionary<String, String> props = props("host", "localhost", "tokens", "a, b,c");
+        Object config = binder.bind(props, new TestConverter());
+        assertEquals("localhost", invoke(config, "host"));
+        assertEquals(80, invoke(config, "port"));
+        assertEquals(Arrays.asList("a", "b", "c"), invoke(config, "tokens"));
+        assertEquals("model.Config2" + props, config.toString());
+    }
+
+    @Test
+    public void testMissingPrimitive() throws Exception {
+        Binder<?> binder = binder("Config3");
+        assertEquals(10, invoke(binder.bind(props("timeout", "10"), new TestConverter()), "timeout"));
+        try {
+            binder.bind(props(), new TestConverter());
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("No value for property timeout", e.getMessage());
+        }
+    }
+
+    private static Binder<?> binder(String name) throws Exception {
+        Class<?> clazz = loader.loadClass("model." + name + Binder.SUFFIX);
+        Binder<?> binder = (Binder<?>) clazz.newInstance();
+        assertEquals("model." + name, binder.getType().getName());
+        return binder;
+    }
+
+    private static Object invoke(Object config, String name) throws Exception {
+        // the implementation class is private, so go through the interface
+        return config.getClass().getInterfaces()[0].getMethod(name).invoke(config);
+    }
+
+    private static Dictionary<String, String> props(String... keyValues) {
+        Dictionary<String, String> props = new Hashtable<String, String>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            props.put(keyValues[i], keyValues[i + 1]);
+        }
+        return props;
+    }
+
+    /**
+     * A minimal converter for the types used by the model interfaces.
+     */
+    static class TestConverter implements Binder.TypeConverter {
+
+        public Object convert(Object value, Type type) throws Exception {
+            if (type == int.class || type == Integer.class) {
+                return Integer.valueOf(value.toString());
+            }
+            if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == List.class) {
+                return Arrays.asList((String[]) value);
+            }
+            return value.toString();
+        }
+
+    }
+
+}